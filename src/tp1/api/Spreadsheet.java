@@ -3,10 +3,17 @@ package tp1.api;
 import java.util.*;
 import java.util.logging.Logger;
 
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.annotations.SerializedName;
+
 import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.CellType;
 import tp1.api.service.util.Result;
+import tp1.clients.sheet.SpreadsheetCachingClient;
 import tp1.discovery.Discovery;
 import tp1.util.CellRange;
+import tp1.util.ImportPath;
+import tp1.util.SparseCells;
 
 
 /**
@@ -28,8 +35,10 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	
 	private Set<String> sharedWith;
 	
-	// raw contents of the sheet
-	private String[][] rawValues;
+	// raw contents of the sheet, only the populated cells are stored; sent as the full 2D array of raw values
+	@SerializedName("rawValues")
+	@JsonAdapter(SparseCells.GsonAdapter.class)
+	private SparseCells cells;
 	
 	public Spreadsheet() {	
 	}
@@ -42,7 +51,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 		this.rows = rows;
 		this.columns = columns;
 		this.sharedWith = sharedWith;
-		this.rawValues = rawValues;
+		this.cells = SparseCells.of(rawValues);
 	}
 
 	public Spreadsheet(Spreadsheet s, String sheetId, String domainId) {
@@ -53,7 +62,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 		this.rows = s.rows;
 		this.columns = s.columns;
 		this.sharedWith = Optional.ofNullable(s.sharedWith).orElse(new HashSet<>());
-		this.rawValues = Optional.ofNullable(s.rawValues).orElse(new String[rows][columns]);
+		this.cells = Optional.ofNullable(s.cells).orElse(new SparseCells(rows, columns));
 	}
 
 	public Spreadsheet(Spreadsheet s, String domainId) {
@@ -64,7 +73,23 @@ public class Spreadsheet implements AbstractSpreadsheet {
 		this.rows = s.rows;
 		this.columns = s.columns;
 		this.sharedWith = Optional.ofNullable(s.sharedWith).orElse(new HashSet<>());
-		this.rawValues = Optional.ofNullable(s.rawValues).orElse(new String[rows][columns]);
+		this.cells = Optional.ofNullable(s.cells).orElse(new SparseCells(rows, columns));
+	}
+
+	/**
+	 * Copies the spreadsheet, so that the copy can be changed while this one is still being read. The raw
+	 * values are not copied, only shared until they are written (see SparseCells.copy()).
+	 */
+	public Spreadsheet copy() {
+		var copy = new Spreadsheet();
+		copy.sheetId = sheetId;
+		copy.owner = owner;
+		copy.sheetURL = sheetURL;
+		copy.rows = rows;
+		copy.columns = columns;
+		copy.sharedWith = sharedWith == null ? null : new HashSet<>(sharedWith);
+		copy.cells = cells == null ? null : cells.copy();
+		return copy;
 	}
 
 	public String getSheetId() {
@@ -125,11 +150,27 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	}
 
 	public String[][] getRawValues() {
-		return rawValues;
+		return cells == null ? null : cells.toArray();
 	}
 
 	public void setRawValues(String[][] rawValues) {
-		this.rawValues = rawValues;
+		this.cells = rawValues == null ? null : SparseCells.of(rawValues);
+	}
+
+	/**
+	 * Gets one row of getRawValues(), without building the others.
+	 * @param row - the row index.
+	 * @return the raw values of the row, or null if the spreadsheet has no raw values.
+	 */
+	public String[] extractRowRawValues(int row) {
+		return cells == null ? null : cells.row(row);
+	}
+
+	/**
+	 * @return the number of rows of getRawValues(), -1 if the spreadsheet has no raw values.
+	 */
+	public int extractRawRows() {
+		return cells == null ? -1 : cells.rows();
 	}
 
 	/**
@@ -139,7 +180,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	 */
 	public void placeCellRawValue(String cell, String value) {
 		var r = new CellRange( cell + ":A1");
-		rawValues[r.topRow][ r.topCol] = value;
+		placeCellRawValue(r.topRow, r.topCol, value);
 	}
 	
 	/**
@@ -150,7 +191,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	 */
 	@Deprecated
 	public void placeCellRawValue(int row, int col, String value) {
-		rawValues[row][ col] = value;
+		cells.set(row, col, value);
 	}
 	
 	/**
@@ -160,7 +201,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 	 * @return the raw value of the cell.
 	 */
 	public String extractCellRawValue(int row, int col) {
-		return rawValues[row][col];
+		return cells.get(row, col);
 	}
 
 	public String extractOwnerDomain() {
@@ -184,21 +225,68 @@ public class Spreadsheet implements AbstractSpreadsheet {
 
 	@Override
 	public String cellRawValue(int row, int col) {
-		return rawValues[row][col];
+		return cells.get(row, col);
+	}
+
+	@Override
+	public CellType cellType(int row, int col) {
+		return cells.type(row, col);
+	}
+
+	@Override
+	public Object cellLiteral(int row, int col) {
+		return cells.literal(row, col);
+	}
+
+	@Override
+	public void forEachCell(CellVisitor visitor) {
+		cells.forEachCell(visitor);
+	}
+
+	@Override
+	public void forEachCell(CellRange range, CellVisitor visitor) {
+		cells.forEachCell(range, visitor);
+	}
+
+	@Override
+	public boolean hasFormulas() {
+		return cells.formulas() > 0;
+	}
+
+	@Override
+	public boolean hasImports() {
+		return cells.imports() > 0;
+	}
+
+	@Override
+	public Object version() {
+		return cells == null ? null : cells.version();
+	}
+
+	@Override
+	public boolean forEachChange(Object since, CellVisitor visitor) {
+		return cells != null && cells.forEachChange(since, visitor);
 	}
 
 	private static Logger Log = Logger.getLogger(Spreadsheet.class.getName());
 
 	@Override
 	public Result<String[][]> rangeValues(Map<String,Long> versions, String sheetURL, String range) {
+		// fail at once on import cycles and chains of imports that are too long
+		ImportPath path = ImportPath.current().through(this.sheetURL);
+		if (path.visits(sheetURL) || path.tooDeep()) {
+			Log.info("Import of " + sheetURL + " refused: " + path);
+			return Result.error(Result.ErrorCode.BAD_REQUEST);
+		}
+
 		try {
 			String[] parts = sheetURL.split(SHEET_URL_DELIMITER);
 			String domainId = parts[0];
 			String otherSheetId = parts[1];
 			String userId = owner+"@"+this.sheetURL.split(SHEET_URL_DELIMITER)[0];
 
-			return Discovery.getRemoteSpreadsheetClients(domainId)
-					.getReferencedSpreadsheetValues(versions, otherSheetId, userId, range);
+			var client = new SpreadsheetCachingClient(Discovery.getRemoteSpreadsheetClients(domainId), domainId);
+			return ImportPath.with(path, () -> client.getReferencedSpreadsheetValues(versions, otherSheetId, userId, range));
 		} catch (Exception e) {
 			e.printStackTrace();
 			return Result.error(Result.ErrorCode.INTERNAL_ERROR, e);
@@ -214,7 +302,7 @@ public class Spreadsheet implements AbstractSpreadsheet {
 				", rows=" + rows +
 				", columns=" + columns +
 				", sharedWith=" + sharedWith +
-				", rawValues=" + Arrays.deepToString(rawValues) +
+				", rawValues=" + Arrays.deepToString(getRawValues()) +
 				'}';
 	}
 }
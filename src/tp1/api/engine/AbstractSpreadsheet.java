@@ -1,6 +1,7 @@
 package tp1.api.engine;
 
 import tp1.api.service.util.Result;
+import tp1.util.CellRange;
 
 import java.util.Map;
 
@@ -34,6 +35,90 @@ public interface AbstractSpreadsheet {
 	 * Called by the engine to obtain the raw value of a cell, given its row, col coordinates
 	 */
 	String cellRawValue(int row, int col);
+
+	/**
+	 * Called by the engine to obtain the type of a cell. Spreadsheets that classify their cells when
+	 * they are written should override it, to spare the engine from parsing the raw values.
+	 */
+	default CellType cellType(int row, int col) {
+		return CellType.of(cellRawValue(row, col));
+	}
+
+	/**
+	 * Called by the engine to obtain the value of a cell that holds no formula, already parsed
+	 * as given by CellType.literal().
+	 */
+	default Object cellLiteral(int row, int col) {
+		return cellType(row, col).literal(cellRawValue(row, col));
+	}
+
+	/**
+	 * Called by the engine to visit the cells that may hold a value, row by row. Spreadsheets that
+	 * know which cells are populated should override it; by default every cell is visited.
+	 */
+	default void forEachCell(CellVisitor visitor) {
+		for (int row = 0; row < rows(); row++)
+			for (int col = 0; col < columns(); col++)
+				visitor.cell(row, col);
+	}
+
+	/**
+	 * Called by the engine to visit the cells inside a range that may hold a value, row by row. The range may
+	 * reach outside the spreadsheet, whose cells are not visited. Spreadsheets that know which cells are
+	 * populated should override it; by default every cell of the range is visited.
+	 */
+	default void forEachCell(CellRange range, CellVisitor visitor) {
+		for (int row = Math.max(range.topRow, 0); row <= Math.min(range.botRow, rows() - 1); row++)
+			for (int col = Math.max(range.topCol, 0); col <= Math.min(range.botCol, columns() - 1); col++)
+				visitor.cell(row, col);
+	}
+
+	/**
+	 * Called by the engine to know if any cell holds a formula or an import; sheets holding only literals
+	 * are not evaluated. Spreadsheets that keep track of their formulas should override it; by default
+	 * the cells are scanned.
+	 */
+	default boolean hasFormulas() {
+		boolean[] found = { false };
+		forEachCell((row, col) -> found[0] |= cellType(row, col).isFormula());
+		return found[0];
+	}
+
+	/**
+	 * Called by the engine to know which cells changed since it last read the spreadsheet, or another version
+	 * of it: an object that stays the same as long as the raw values do, to be given back to forEachChange().
+	 * Spreadsheets that do not keep versions return null, and report their changes through
+	 * SpreadsheetEngine.invalidateCell() instead.
+	 */
+	default Object version() {
+		return null;
+	}
+
+	/**
+	 * Called by the engine to visit the cells whose raw value may differ between the version of the spreadsheet
+	 * it last read, as given by version(), and this one.
+	 * @return false if the cells that differ are unknown, and every cell has to be read again.
+	 */
+	default boolean forEachChange(Object since, CellVisitor visitor) {
+		return false;
+	}
+
+	/**
+	 * Tells if any cell holds an import, whose value may change without the spreadsheet changing. Spreadsheets
+	 * that keep track of their imports should override it; by default the cells are scanned.
+	 */
+	default boolean hasImports() {
+		boolean[] found = { false };
+		forEachCell((row, col) -> found[0] |= cellType(row, col) == CellType.IMPORTRANGE);
+		return found[0];
+	}
+
+	/**
+	 * Receives the coordinates of the cells visited by forEachCell().
+	 */
+	interface CellVisitor {
+		void cell(int row, int col);
+	}
 	
 	/**
 	 * Called by the engine to resolve importrange formulas
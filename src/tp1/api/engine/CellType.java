@@ -0,0 +1,85 @@
+package tp1.api.engine;
+
+import java.util.regex.Pattern;
+
+import tp1.util.CellRange;
+
+/**
+ *
+ * The kinds of raw values a spreadsheet cell may hold.
+ *
+ */
+public enum CellType {
+	EMPTY, BOOLEAN, NUMBER, IMPORTRANGE, TEXT, FORMULA;
+
+	private static final String URL_REGEX = "(.+)";
+	private static final String IMPORTRANGE_FORMULA = "=importrange";
+
+	/**
+	 * Matches "=importrange(...)" formulas; group 1 is the sheet URL and group 2 the range.
+	 */
+	public static final Pattern IMPORTRANGE_PATTERN = Pattern.compile(String.format("=importrange\\(\"%s\",\"(%s)\"\\)", URL_REGEX, CellRange.RANGE_REGEX));
+
+	/**
+	 * Classifies a raw value.
+	 * @param rawVal - the raw value of a cell, possibly null.
+	 * @return the type of the cell.
+	 */
+	public static CellType of(String rawVal) {
+		if (rawVal == null || rawVal.length() == 0)
+			return EMPTY;
+
+		rawVal = rawVal.toLowerCase();
+
+		if (rawVal.charAt(0) == '=')
+			return rawVal.startsWith(IMPORTRANGE_FORMULA) ? IMPORTRANGE : FORMULA;
+
+		if (rawVal.equals("true") || rawVal.equals("false"))
+			return BOOLEAN;
+
+		if (!maybeNumber(rawVal))
+			return TEXT;
+
+		try {
+			Double.parseDouble(rawVal);
+			return NUMBER;
+		} catch (Exception x) {
+		}
+		return TEXT;
+	}
+
+	/**
+	 * @return true for the types whose value has to be computed by an engine: formulas and imports.
+	 */
+	public boolean isFormula() {
+		return this == FORMULA || this == IMPORTRANGE;
+	}
+
+	/**
+	 * Converts the raw value of a cell of this type to the value it holds: a Double for numbers, a Boolean for
+	 * booleans, the empty string for empty cells and the raw value itself otherwise.
+	 * @param rawVal - the raw value of a cell of this type.
+	 * @return the value of the cell.
+	 */
+	public Object literal(String rawVal) {
+		return switch (this) {
+			case BOOLEAN -> Boolean.parseBoolean(rawVal);
+			case NUMBER -> Double.parseDouble(rawVal);
+			case EMPTY -> "";
+			default -> rawVal;
+		};
+	}
+
+	/**
+	 * Cheap test that rules out most text before trying Double.parseDouble, which throws on failure: after leading
+	 * whitespace and an optional sign, a (lower case) number always starts with a digit or a dot.
+	 */
+	private static boolean maybeNumber(String rawVal) {
+		int i = 0;
+		while (i < rawVal.length() && rawVal.charAt(i) <= ' ')
+			i++;
+		if (i < rawVal.length() && (rawVal.charAt(i) == '+' || rawVal.charAt(i) == '-'))
+			i++;
+		return i < rawVal.length() && (Character.isDigit(rawVal.charAt(i)) || rawVal.charAt(i) == '.');
+	}
+}
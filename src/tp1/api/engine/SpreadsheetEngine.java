@@ -1,6 +1,8 @@
 package tp1.api.engine;
 
 import tp1.api.service.util.Result;
+import tp1.util.CellRange;
+import tp1.util.CellValues;
 
 import java.util.Map;
 
@@ -14,11 +16,93 @@ import java.util.Map;
  */
 public interface SpreadsheetEngine {
 
+	/**
+	 * 
+	 * @param sheet - The spreadsheet whose cells will be used to compute the values
+	 * @return the full "matrix" of cell values, typed.
+	 */
+	Result<CellValues> computeValues(Map<String,Long> versions, AbstractSpreadsheet sheet);
+
+	/**
+	 * Computes the values of a range of cells. Engines able to do so only compute the cells in the range
+	 * and the cells they depend on; by default, the whole spreadsheet is computed.
+	 * @param sheet - The spreadsheet whose cells will be used to compute the values
+	 * @param range - The range of cells to compute, assumed to be contained in the spreadsheet.
+	 * @return the "matrix" of the values of the cells in the range, typed.
+	 */
+	default Result<CellValues> computeValues(Map<String,Long> versions, AbstractSpreadsheet sheet, CellRange range) {
+		Result<CellValues> values = computeValues(versions, sheet);
+		if (!values.isOK())
+			return values;
+
+		Result<CellValues> result = Result.ok(values.value().slice(range));
+		result.setOthers(values.getOthers());
+		return result;
+	}
+
 	/**
 	 * 
 	 * @param sheet - The spreadsheet whose cells will be used to compute the values
 	 * @return the full "matrix" of cell values.
 	 */
-	Result<String[][]> computeSpreadsheetValues(Map<String,Long> versions, AbstractSpreadsheet sheet);
+	default Result<String[][]> computeSpreadsheetValues(Map<String,Long> versions, AbstractSpreadsheet sheet) {
+		return toStrings(computeValues(versions, sheet));
+	}
+
+	/**
+	 * Computes the values of a range of cells, as computeValues().
+	 * @param sheet - The spreadsheet whose cells will be used to compute the values
+	 * @param range - The range of cells to compute, assumed to be contained in the spreadsheet.
+	 * @return the "matrix" of the values of the cells in the range.
+	 */
+	default Result<String[][]> computeSpreadsheetValues(Map<String,Long> versions, AbstractSpreadsheet sheet, CellRange range) {
+		return toStrings(computeValues(versions, sheet, range));
+	}
+
+	/**
+	 * The values of a spreadsheet without formulas, which are the literals of its cells: engines return them
+	 * directly when AbstractSpreadsheet.hasFormulas() is false.
+	 */
+	static CellValues literalValues(AbstractSpreadsheet sheet) {
+		CellValues values = new CellValues(sheet.rows(), sheet.columns());
+		sheet.forEachCell((row, col) -> values.set(row, col, sheet.cellLiteral(row, col)));
+		return values;
+	}
+
+	/**
+	 * The values of a range of cells of a spreadsheet without formulas, as literalValues(). Only the populated
+	 * cells of the range are read, so the cost follows the range and not the spreadsheet.
+	 */
+	static CellValues literalValues(AbstractSpreadsheet sheet, CellRange range) {
+		CellValues values = new CellValues(range.rows(), range.cols());
+		sheet.forEachCell(range, (row, col) -> values.set(row - range.topRow, col - range.topCol, sheet.cellLiteral(row, col)));
+		return values;
+	}
+
+	/**
+	 * Converts typed values to their textual form, keeping the headers of the result.
+	 */
+	static Result<String[][]> toStrings(Result<CellValues> values) {
+		Result<String[][]> result = values.isOK() ? Result.ok(values.value().toStrings()) : Result.error(values.error());
+		result.setOthers(values.getOthers());
+		return result;
+	}
+
+	/**
+	 * Called after the raw value of a cell changes, so that engines keeping computed values around
+	 * only recompute the cells that depend on it.
+	 * @param sheetId - the id of the spreadsheet.
+	 * @param row - the row index of the cell.
+	 * @param col - the column index of the cell.
+	 */
+	default void invalidateCell(String sheetId, int row, int col) {
+	}
+
+	/**
+	 * Called when a spreadsheet is deleted, so that engines can drop whatever they keep about it.
+	 * @param sheetId - the id of the spreadsheet.
+	 */
+	default void invalidateSheet(String sheetId) {
+	}
 
 }
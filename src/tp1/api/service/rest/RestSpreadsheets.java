@@ -6,12 +6,26 @@ import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import tp1.api.Spreadsheet;
 
+import java.util.Map;
+
 
 @Path(RestSpreadsheets.PATH)
 public interface RestSpreadsheets {
 
 	String HEADER_VERSION = "Sheetsserver";
 	String PATH="/spreadsheets";
+
+	/**
+	 * Header carrying the secret shared by the servers, on the operations only servers may call; unlike
+	 * query parameters, headers are not written to the access logs along with the URL.
+	 */
+	String HEADER_SECRET = "X-Sheets-Secret";
+
+	/**
+	 * Compact binary format of grids and spreadsheets, negotiated with the Accept and Content-Type headers;
+	 * JSON is used otherwise.
+	 */
+	String APPLICATION_GRID = "application/x-sheets-grid";
 	
 	/**
 	 * Creates a new spreadsheet. The sheetId and sheetURL are generated by the server.
@@ -23,7 +37,7 @@ public interface RestSpreadsheets {
 	 * 		   400 otherwise.
 	 */
 	@POST
-	@Consumes(MediaType.APPLICATION_JSON)
+	@Consumes({MediaType.APPLICATION_JSON, APPLICATION_GRID})
 	@Produces(MediaType.APPLICATION_JSON)
 	String createSpreadsheet(Spreadsheet sheet, @QueryParam("password") String password );
 
@@ -58,16 +72,20 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/{sheetId}")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, APPLICATION_GRID})
 	Spreadsheet getSpreadsheet(@Context HttpHeaders headers, @PathParam("sheetId") String sheetId , @QueryParam("userId") String userId,
 							   @QueryParam("password") String password);
 		
 	
 	/**
-	 * Retrieves the calculated values of a spreadsheet.
+	 * Retrieves the calculated values of a spreadsheet, or of a window of it. Only the cells of the window and the
+	 * cells they depend on are computed. Parts of the window beyond the spreadsheet are left out.
 	 * @param userId - The user requesting the values
 	 * @param sheetId - the spreadsheet whose values are being retrieved.
 	 * @param password - the password of the user performing  of the operation
+	 * @param range - optional, the range of cells whose values are retrieved (e.g. A1:F50).
+	 * @param rowOffset - optional, the index of the first row retrieved, starting at 0; cannot be used with range.
+	 * @param rowLimit - optional, the maximum number of rows retrieved; cannot be used with range.
 	 * 
 	 * @return 200, if the operation is successful
 	 * 		   403, if the spreadsheet is not shared with user, or the user is not the owner, or the password is incorrect.
@@ -76,9 +94,11 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/{sheetId}/values")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, APPLICATION_GRID})
 	String[][] getSpreadsheetValues(@Context HttpHeaders headers, @PathParam("sheetId") String sheetId,
-									@QueryParam("userId") String userId, @QueryParam("password") String password);
+									@QueryParam("userId") String userId, @QueryParam("password") String password,
+									@QueryParam("range") String range, @QueryParam("rowOffset") Integer rowOffset,
+									@QueryParam("rowLimit") Integer rowLimit);
 
 
 	/**
@@ -94,7 +114,7 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/reference/{sheetId}")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, APPLICATION_GRID})
 	String[][] getReferencedSpreadsheetValues(@Context HttpHeaders headers, @PathParam("sheetId") String sheetId,
 											  @QueryParam("userId") String userId, @QueryParam("range") String range);
 
@@ -118,6 +138,26 @@ public interface RestSpreadsheets {
 	void updateCell(@PathParam("sheetId") String sheetId, @PathParam("cell") String cell, String rawValue,
 					@QueryParam("userId") String userId, @QueryParam("password") String password);
 
+	/**
+	 * Updates the raw values of several cells of a spreadsheet in a single request. Either all the cells are
+	 * updated or none is.
+	 *
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param rawValues - the new raw values, by cell (e.g. {"A1": "3", "B2": "=A1*2"}).
+	 * @param userId - The user performing the update.
+	 * @param password - the password of the user performing of the operation
+	 *
+	 * @return 204, if the operation was successful
+	 * 		  404, if no spreadsheet exists with the given sheetid
+	 *        403, if the password is incorrect.
+	 *        400 otherwise, namely if any of the cells is invalid
+	 **/
+	@PUT
+	@Path("/{sheetId}/cells")
+	@Consumes(MediaType.APPLICATION_JSON)
+	void updateCells(@PathParam("sheetId") String sheetId, Map<String, String> rawValues,
+					 @QueryParam("userId") String userId, @QueryParam("password") String password);
+
 	
 	/**
 	 * Adds a new user to the list of shares of a spreadsheet. Only the owner can call this method.
@@ -168,4 +208,16 @@ public interface RestSpreadsheets {
 	@DELETE
 	@Path("/all/{userId}")
 	void deleteUserSpreadsheets(@PathParam("userId") String userId, @QueryParam("password") String password);
+
+	/**
+	 * Tells the server that a user was updated or deleted, so that it stops using the outcome of checking the
+	 * credentials of the user it may have cached. Only other servers can call this method.
+	 * @param userId - the user that changed.
+	 * @param secret - the secret shared by the servers, given in the X-Sheets-Secret header.
+	 * @return 204 if the credentials were dropped
+	 * 		   403 if the secret is wrong
+	 */
+	@DELETE
+	@Path("/credentials/{userId}")
+	void invalidateCredentials(@PathParam("userId") String userId, @HeaderParam(HEADER_SECRET) String secret);
 }
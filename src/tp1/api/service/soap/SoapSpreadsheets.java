@@ -91,6 +91,20 @@ public interface SoapSpreadsheets {
 	@WebMethod
 	void updateCell( String sheetId, String cell, String rawValue, String userId, String password) throws SheetsException;
 
+	/**
+	 * Updates the raw values of several cells of a spreadsheet in a single request. Either all the cells are
+	 * updated or none is.
+	 *
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param cells - the cells being updated
+	 * @param rawValues - the new raw values, in the same order as the cells
+	 * @param userId - The user performing the update.
+	 * @param password - the password of the owner of the spreadsheet
+	 *
+	 **/
+	@WebMethod
+	void updateCells( String sheetId, String[] cells, String[] rawValues, String userId, String password) throws SheetsException;
+
 	
 	/**
 	 * Retrieves the calculated values of a spreadsheet.
@@ -111,4 +125,14 @@ public interface SoapSpreadsheets {
 	@WebMethod
 	void deleteUserSpreadsheets(String userId, String password) throws SheetsException;
 
+	/**
+	 * Tells the server that a user was updated or deleted, so that it stops using the outcome of checking the
+	 * credentials of the user it may have cached. Only other servers can call this method.
+	 * @param userId - the user that changed.
+	 * @param secret - the secret shared by the servers.
+	 *
+	 */
+	@WebMethod
+	void invalidateCredentials(String userId, String secret) throws SheetsException;
+
 }
@@ -2,6 +2,8 @@ package tp1.api.service.util;
 
 import tp1.api.Spreadsheet;
 
+import java.util.Map;
+
 
 public interface Spreadsheets {
 
@@ -92,6 +94,21 @@ public interface Spreadsheets {
 	 **/
 	Result<Void> updateCell( String sheetId, String cell, String rawValue, String userId, String password);
 
+	/**
+	 * Updates the raw values of several cells of a spreadsheet. Either all the cells are updated or none is.
+	 *
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param rawValues - the new raw values, by cell
+	 * @param userId - The user performing the update.
+	 * @param password - the password of the owner of the spreadsheet
+	 *
+	 * @return 204, if the operation was successful
+	 * 		  404, if no spreadsheet exists with the given sheetid
+	 *        403, if the password is incorrect.
+	 *        400 otherwise
+	 **/
+	Result<Void> updateCells( String sheetId, Map<String, String> rawValues, String userId, String password);
+
 	
 	/**
 	 * Retrieves the calculated values of a spreadsheet.
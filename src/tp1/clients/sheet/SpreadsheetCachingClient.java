@@ -0,0 +1,177 @@
+package tp1.clients.sheet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import jakarta.ws.rs.core.HttpHeaders;
+import tp1.api.service.util.Result;
+import tp1.util.ImportPath;
+import tp1.util.Stats;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static tp1.api.service.rest.RestSpreadsheets.HEADER_VERSION;
+
+/**
+ * Caches the values of ranges imported from the sheets of a remote domain, shared by all the requests of the server.
+ *
+ * A cached range is used without contacting the remote domain while it is younger than sheets.imports.cache.maxAge
+ * milliseconds and the version of the remote domain it was fetched at is not older than the one known by the caller.
+ * Otherwise it is revalidated with a conditional request, which only transfers the values if they changed.
+ * Ranges are cached per import path, since the imports of the remote sheets fail along paths they would close a
+ * cycle in or go too deep.
+ */
+public class SpreadsheetCachingClient implements SpreadsheetClient {
+
+    public static final String MAX_CELLS_PROPERTY = "sheets.imports.cache.cells";
+    public static final String MAX_AGE_PROPERTY = "sheets.imports.cache.maxAge";
+
+    private static final long DEFAULT_MAX_CELLS = 1_000_000;
+    private static final long DEFAULT_MAX_AGE = 1000;
+
+    private static final long MAX_AGE = Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE);
+
+    private static final Cache<CachedRangeKey, CachedRange> cache = CacheBuilder.newBuilder()
+            .maximumWeight(Long.getLong(MAX_CELLS_PROPERTY, DEFAULT_MAX_CELLS))
+            .weigher((CachedRangeKey key, CachedRange range) -> range.weight())
+            .recordStats()
+            .build();
+
+    static {
+        Stats.register("imports", SpreadsheetCachingClient::stats);
+    }
+
+    private final SpreadsheetClient client;
+    private final String domainId;
+
+    public SpreadsheetCachingClient(SpreadsheetClient client, String domainId) {
+        this.client = client;
+        this.domainId = domainId;
+    }
+
+    public static CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range) {
+        CachedRangeKey key = new CachedRangeKey(domainId, sheetId, range, userId, ImportPath.current().key());
+        CachedRange cached = cache.getIfPresent(key);
+
+        if (cached != null && cached.isFresh(versions, HEADER_VERSION + domainId, MAX_AGE))
+            return cached.result();
+
+        Result<String[][]> result = client.getReferencedSpreadsheetValues(versions, sheetId, userId, range, cached == null ? null : cached.etag);
+
+        // the entity tag is only meant for this cache, not for the callers merging the headers into their own replies
+        String etag = CachedRange.header(result.getOthers(), HttpHeaders.ETAG);
+        result.getOthers().keySet().removeIf(header -> header.equalsIgnoreCase(HttpHeaders.ETAG));
+        Map<String, String> others = new HashMap<>(result.getOthers());
+
+        if (!result.isOK())
+            return result;
+
+        if (result.value() != null)
+            cached = new CachedRange(result.value(), others, etag);
+        else if (cached != null)
+            cached = new CachedRange(cached.values, others, cached.etag);
+        else
+            return Result.error(Result.ErrorCode.INTERNAL_ERROR);
+
+        cache.put(key, cached);
+        return cached.result();
+    }
+
+    @Override
+    public Result<Void> deleteUserSpreadsheets(String userId, String password) {
+        return client.deleteUserSpreadsheets(userId, password);
+    }
+
+    @Override
+    public Result<Void> invalidateCredentials(String userId, String secret) {
+        return client.invalidateCredentials(userId, secret);
+    }
+}
+
+class CachedRangeKey {
+
+    final String domainId, sheetId, range, userId, path;
+
+    CachedRangeKey(String domainId, String sheetId, String range, String userId, String path) {
+        this.domainId = domainId;
+        this.sheetId = sheetId;
+        this.range = range;
+        this.userId = userId;
+        this.path = path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CachedRangeKey key = (CachedRangeKey) o;
+        return domainId.equals(key.domainId) && sheetId.equals(key.sheetId) && range.equals(key.range) && userId.equals(key.userId) && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(domainId, sheetId, range, userId, path);
+    }
+}
+
+class CachedRange {
+
+    final String[][] values;
+    final Map<String, String> others;
+    final String etag;
+    final long fetched;
+
+    CachedRange(String[][] values, Map<String, String> others, String etag) {
+        this.values = values;
+        this.others = others;
+        this.etag = etag;
+        this.fetched = System.currentTimeMillis();
+    }
+
+    /**
+     * The range can be used as is if it is recent and was fetched at a version of the remote domain
+     * not older than the one the caller already saw.
+     */
+    boolean isFresh(Map<String,Long> versions, String versionHeader, long maxAge) {
+        if (System.currentTimeMillis() - fetched >= maxAge)
+            return false;
+
+        Long known = header(versions, versionHeader);
+        if (known == null)
+            return true;
+
+        String version = header(others, versionHeader);
+        try {
+            return version != null && Long.parseLong(version) >= known;
+        } catch (NumberFormatException x) {
+            return false;
+        }
+    }
+
+    Result<String[][]> result() {
+        Result<String[][]> result = Result.ok(values);
+        result.setOthers(others);
+        return result;
+    }
+
+    int weight() {
+        int cells = 1;
+        for (String[] row : values)
+            cells += row.length;
+        return cells;
+    }
+
+    static <V> V header(Map<String, V> headers, String name) {
+        for (Map.Entry<String, V> entry : headers.entrySet())
+            if (entry.getKey().equalsIgnoreCase(name))
+                return entry.getValue();
+        return null;
+    }
+}
@@ -13,5 +13,20 @@ public interface SpreadsheetClient {
 
     Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range);
 
+    /**
+     * Conditional variant of getReferencedSpreadsheetValues: if the values still have the given entity tag,
+     * the result is ok with a null value. The entity tag of the values, when known, is returned in getOthers()
+     * under the ETag header name. Clients that cannot send conditional requests always fetch the values.
+     */
+    default Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range, String etag) {
+        return getReferencedSpreadsheetValues(versions, sheetId, userId, range);
+    }
+
     Result<Void> deleteUserSpreadsheets(String userId, String password);
+
+    /**
+     * Tells the server that a user was updated or deleted, so that it drops the credentials of the user it cached.
+     * Only servers, which know the secret they share, can do it.
+     */
+    Result<Void> invalidateCredentials(String userId, String secret);
 }
\ No newline at end of file
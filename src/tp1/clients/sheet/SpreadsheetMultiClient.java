@@ -39,8 +39,30 @@ public class SpreadsheetMultiClient implements SpreadsheetClient{
         return multi(client -> client.getReferencedSpreadsheetValues(versions,sheetId,userId,range));
     }
 
+    @Override
+    public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range, String etag) {
+        return multi(client -> client.getReferencedSpreadsheetValues(versions,sheetId,userId,range,etag));
+    }
+
     @Override
     public Result<Void> deleteUserSpreadsheets(String userId, String password) {
         return multi(client -> client.deleteUserSpreadsheets(userId,password));
     }
+
+    /**
+     * Sent to every server of the domain, not just the first one that answers, since each one caches credentials.
+     */
+    @Override
+    public Result<Void> invalidateCredentials(String userId, String secret) {
+        Result<Void> result = Result.ok();
+        if (clients == null)
+            return result;
+
+        for (SpreadsheetClient client : clients.values()) {
+            Result<Void> r = client.invalidateCredentials(userId, secret);
+            if (!r.isOK())
+                result = r;
+        }
+        return result;
+    }
 }
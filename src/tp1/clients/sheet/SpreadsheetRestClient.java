@@ -3,16 +3,22 @@ package tp1.clients.sheet;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.client.*;
 import jakarta.ws.rs.core.GenericType;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.ClientProperties;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.api.service.util.Result;
+import tp1.util.BinaryGridProvider;
+import tp1.util.Compression;
+import tp1.util.Deadline;
+import tp1.util.ImportPath;
 
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import static tp1.api.service.rest.RestSpreadsheets.HEADER_SECRET;
 import static tp1.api.service.rest.RestSpreadsheets.HEADER_VERSION;
 
 public class SpreadsheetRestClient implements SpreadsheetClient {
@@ -25,6 +31,8 @@ public class SpreadsheetRestClient implements SpreadsheetClient {
 
     public SpreadsheetRestClient(String serverUrl, String domainId) {
         ClientConfig config = new ClientConfig();
+        config.register(BinaryGridProvider.class);
+        config.register(Compression.Client.class);
         Client client = ClientBuilder.newClient(config);
         client.property(ClientProperties.CONNECT_TIMEOUT, CONNECTION_TIMEOUT);
         client.property(ClientProperties.READ_TIMEOUT,    REPLY_TIMEOUT);
@@ -35,7 +43,7 @@ public class SpreadsheetRestClient implements SpreadsheetClient {
     private <T> Result<T> addHeaders(Result<T> result, Response response) {
         Map<String, String> headers = response.getStringHeaders().entrySet()
                 .stream()
-                .filter(e -> e.getKey().startsWith(HEADER_VERSION))
+                .filter(e -> e.getKey().startsWith(HEADER_VERSION) || e.getKey().equalsIgnoreCase(HttpHeaders.ETAG))
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
                         e -> e.getValue().get(0)
@@ -47,17 +55,42 @@ public class SpreadsheetRestClient implements SpreadsheetClient {
 
     @Override
     public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range) {
+        return getReferencedSpreadsheetValues(versions, sheetId, userId, range, null);
+    }
+
+    @Override
+    public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range, String etag) {
+        Deadline deadline = Deadline.current();
+        if (deadline.expired())
+            return Result.error(Result.ErrorCode.NOT_AVAILABLE, new Exception("Deadline exceeded"));
+
         try {
             Invocation.Builder builder = target.path("reference").path(sheetId).queryParam("userId", userId).queryParam("range", range).request()
-                    .accept(MediaType.APPLICATION_JSON);
+                    .accept(RestSpreadsheets.APPLICATION_GRID, MediaType.APPLICATION_JSON + ";q=0.9");
 
             for (Map.Entry<String,Long> entry : versions.entrySet()) {
                 builder.header(entry.getKey(), entry.getValue().toString());
             }
 
+            if (etag != null)
+                builder.header(HttpHeaders.IF_NONE_MATCH, etag);
+
+            ImportPath path = ImportPath.current();
+            if (!path.isEmpty()) {
+                builder.header(ImportPath.PATH_HEADER, path.pathHeader());
+                builder.header(ImportPath.HOPS_HEADER, path.hops());
+            }
+
+            if (deadline.isSet()) {
+                builder.header(Deadline.HEADER, deadline.header());
+                builder.property(ClientProperties.READ_TIMEOUT, (int) Math.max(1, deadline.cap(REPLY_TIMEOUT)));
+            }
+
             Response r = builder.get();
 
-            if (r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity())
+            if (r.getStatus() == Response.Status.NOT_MODIFIED.getStatusCode())
+                return addHeaders(Result.ok(), r);
+            else if (r.getStatus() == Response.Status.OK.getStatusCode() && r.hasEntity())
                 return addHeaders(
                     Result.ok(r.readEntity(new GenericType<String[][]>() {})), r
                 );
@@ -87,4 +120,20 @@ public class SpreadsheetRestClient implements SpreadsheetClient {
             return Result.error(Result.ErrorCode.NOT_AVAILABLE, e);
         }
     }
+
+    @Override
+    public Result<Void> invalidateCredentials(String userId, String secret) {
+        try {
+            Response r = target.path("credentials").path(userId).request()
+                    .header(HEADER_SECRET, secret)
+                    .delete();
+
+            if (r.getStatus() != Response.Status.NO_CONTENT.getStatusCode())
+                return Result.error(Response.Status.fromStatusCode(r.getStatus()), new WebApplicationException(r.getStatus()));
+            else
+                return Result.ok();
+        } catch (Exception e) {
+            return Result.error(Result.ErrorCode.NOT_AVAILABLE, e);
+        }
+    }
 }
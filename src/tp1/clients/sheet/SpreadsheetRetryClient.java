@@ -1,6 +1,7 @@
 package tp1.clients.sheet;
 
 import tp1.api.service.util.Result;
+import tp1.util.Deadline;
 
 import java.util.Map;
 import java.util.function.Supplier;
@@ -26,12 +27,27 @@ public class SpreadsheetRetryClient implements SpreadsheetClient{
         return retry( () -> client.getReferencedSpreadsheetValues(versions, sheetId,userId,range));
     }
 
+    @Override
+    public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range, String etag) {
+        return retry( () -> client.getReferencedSpreadsheetValues(versions, sheetId,userId,range,etag));
+    }
+
     @Override
     public Result<Void> deleteUserSpreadsheets(String userId, String password) {
         return retry( () -> client.deleteUserSpreadsheets(userId,password));
     }
 
+    @Override
+    public Result<Void> invalidateCredentials(String userId, String secret) {
+        // not retried: the server drops the credentials anyway once they expire
+        return client.invalidateCredentials(userId, secret);
+    }
+
+    /**
+     * Retries while the server is not available, giving up early once the deadline of the current request is spent.
+     */
     private static <T> Result<T> retry(Supplier<Result<T>> supplier) {
+        Deadline deadline = Deadline.current();
         Result<T> result;
 
         int retries=0;
@@ -42,9 +58,12 @@ public class SpreadsheetRetryClient implements SpreadsheetClient{
             if(result.error() != NOT_AVAILABLE)
                 return result;;
 
+            if (deadline.cap(RETRY_PERIOD) < RETRY_PERIOD)
+                return result;
+
             try { Thread.sleep(RETRY_PERIOD); } catch (InterruptedException ignored) {}
 
-        } while (retries < MAX_RETRIES);
+        } while (retries < MAX_RETRIES && !deadline.expired());
 
         return result;
     }
@@ -3,14 +3,17 @@ package tp1.clients.sheet;
 import com.sun.xml.ws.client.BindingProviderProperties;
 import jakarta.xml.ws.BindingProvider;
 import jakarta.xml.ws.Service;
+import jakarta.xml.ws.handler.MessageContext;
 import tp1.api.Spreadsheet;
 import tp1.api.service.soap.SheetsException;
 import tp1.api.service.soap.SoapSpreadsheets;
 import tp1.api.service.util.Result;
+import tp1.util.Deadline;
 
 import javax.xml.namespace.QName;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 public class SpreadsheetSoapClient implements SpreadsheetClient {
@@ -20,25 +23,46 @@ public class SpreadsheetSoapClient implements SpreadsheetClient {
     public final static int CONNECTION_TIMEOUT = 10000;
     public final static int REPLY_TIMEOUT = 1000;
 
-    public final SoapSpreadsheets target;
+    // one port per thread, as each call sets the deadline of its own request in the request context
+    private final ThreadLocal<SoapSpreadsheets> ports;
 
     public final String domainId;
 
     public SpreadsheetSoapClient (String serverUrl, String domainId) throws MalformedURLException {
         QName QNAME = new QName(SoapSpreadsheets.NAMESPACE, SoapSpreadsheets.NAME);
         Service service = Service.create( new URL(serverUrl + SPREADSHEETS_WSDL), QNAME );
-        target = service.getPort( SoapSpreadsheets.class );
-
-        ((BindingProvider) target).getRequestContext().put(BindingProviderProperties.CONNECT_TIMEOUT, CONNECTION_TIMEOUT);
-        ((BindingProvider) target).getRequestContext().put(BindingProviderProperties.REQUEST_TIMEOUT, REPLY_TIMEOUT);
+        ports = ThreadLocal.withInitial(() -> {
+            SoapSpreadsheets port = service.getPort( SoapSpreadsheets.class );
+            ((BindingProvider) port).getRequestContext().put(BindingProviderProperties.CONNECT_TIMEOUT, CONNECTION_TIMEOUT);
+            return port;
+        });
 
         this.domainId =  domainId;
     }
 
+    /**
+     * @return the port of the calling thread, carrying the deadline of the current request, if any.
+     */
+    private SoapSpreadsheets target() {
+        SoapSpreadsheets port = ports.get();
+        Map<String, Object> context = ((BindingProvider) port).getRequestContext();
+
+        Deadline deadline = Deadline.current();
+        context.put(BindingProviderProperties.REQUEST_TIMEOUT, (int) Math.max(1, deadline.cap(REPLY_TIMEOUT)));
+        if (deadline.isSet())
+            context.put(MessageContext.HTTP_REQUEST_HEADERS, Map.of(Deadline.HEADER, List.of(deadline.header())));
+        else
+            context.remove(MessageContext.HTTP_REQUEST_HEADERS);
+        return port;
+    }
+
     @Override
     public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range) {
+        if (Deadline.current().expired())
+            return Result.error(Result.ErrorCode.NOT_AVAILABLE, new Exception("Deadline exceeded"));
+
         try {
-            return Result.ok(target.getReferencedSpreadsheetValues(sheetId, userId, range));
+            return Result.ok(target().getReferencedSpreadsheetValues(sheetId, userId, range));
         } catch (SheetsException e) {
             return Result.error(e.getMessage(),e);
         } catch (Exception e) {
@@ -49,7 +73,19 @@ public class SpreadsheetSoapClient implements SpreadsheetClient {
     @Override
     public Result<Void> deleteUserSpreadsheets(String userId, String password) {
         try {
-            target.deleteUserSpreadsheets(userId, password);
+            target().deleteUserSpreadsheets(userId, password);
+            return Result.ok();
+        } catch (SheetsException e) {
+            return Result.error(e.getMessage(),e);
+        } catch (Exception e) {
+            return Result.error(Result.ErrorCode.NOT_AVAILABLE,e);
+        }
+    }
+
+    @Override
+    public Result<Void> invalidateCredentials(String userId, String secret) {
+        try {
+            target().invalidateCredentials(userId, secret);
             return Result.ok();
         } catch (SheetsException e) {
             return Result.error(e.getMessage(),e);
@@ -0,0 +1,151 @@
+package tp1.clients.user;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import tp1.api.User;
+import tp1.api.service.util.Result;
+import tp1.util.Stats;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the outcome of checking the credentials of the users of the domain, shared by all the requests of the server,
+ * so that most requests are served without a round trip to the users service.
+ *
+ * Accepted credentials are kept for sheets.users.cache.ttl milliseconds and rejected ones (wrong password or unknown
+ * user) for sheets.users.cache.negativeTtl milliseconds, in separate caches of at most sheets.users.cache.size entries
+ * each. Passwords are not kept: entries are found by the user id and a SHA-256 digest of the user id and password,
+ * and the users they hold, handed out on later checks, have no password.
+ * The users service tells the spreadsheet servers when a user is updated or deleted, and the entries of that user are
+ * dropped at once; other failures, such as the users service not being available, are never cached.
+ */
+public class UsersCachingClient implements UsersClient {
+
+    public static final String TTL_PROPERTY = "sheets.users.cache.ttl";
+    public static final String NEGATIVE_TTL_PROPERTY = "sheets.users.cache.negativeTtl";
+    public static final String SIZE_PROPERTY = "sheets.users.cache.size";
+
+    private static final long DEFAULT_TTL = 5000;
+    private static final long DEFAULT_NEGATIVE_TTL = 1000;
+    private static final long DEFAULT_SIZE = 10_000;
+
+    private static final Cache<CredentialsKey, User> accepted = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE))
+            .expireAfterWrite(Long.getLong(TTL_PROPERTY, DEFAULT_TTL), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+
+    private static final Cache<CredentialsKey, Result.ErrorCode> rejected = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong(SIZE_PROPERTY, DEFAULT_SIZE))
+            .expireAfterWrite(Long.getLong(NEGATIVE_TTL_PROPERTY, DEFAULT_NEGATIVE_TTL), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+
+    // number of times the entries of each user were dropped; an outcome is only cached if it did not change meanwhile
+    private static final Map<String, Long> generations = new ConcurrentHashMap<>();
+
+    static {
+        Stats.register("credentials.accepted", UsersCachingClient::acceptedStats);
+        Stats.register("credentials.rejected", UsersCachingClient::rejectedStats);
+    }
+
+    private final UsersClient client;
+
+    public UsersCachingClient(UsersClient client) {
+        this.client = client;
+    }
+
+    public static CacheStats acceptedStats() {
+        return accepted.stats();
+    }
+
+    public static CacheStats rejectedStats() {
+        return rejected.stats();
+    }
+
+    /**
+     * Drops the cached outcomes for the given user, after it was updated or deleted.
+     */
+    public static void invalidate(String userId) {
+        if (userId == null)
+            return;
+        generations.merge(userId, 1L, Long::sum);
+        accepted.asMap().keySet().removeIf(key -> key.userId.equals(userId));
+        rejected.asMap().keySet().removeIf(key -> key.userId.equals(userId));
+    }
+
+    @Override
+    public Result<User> getUser(String userId, String password) {
+        if (userId == null || password == null)
+            return client.getUser(userId, password);
+
+        CredentialsKey key = new CredentialsKey(userId, password);
+
+        User user = accepted.getIfPresent(key);
+        if (user != null)
+            return Result.ok(withoutPassword(user));
+
+        Result.ErrorCode error = rejected.getIfPresent(key);
+        if (error != null)
+            return Result.error(error);
+
+        Long generation = generations.get(userId);
+        Result<User> result = client.getUser(userId, password);
+
+        if (result.isOK() && result.value() != null)
+            accepted.put(key, withoutPassword(result.value()));
+        else if (result.error() == Result.ErrorCode.FORBIDDEN || result.error() == Result.ErrorCode.NOT_FOUND)
+            rejected.put(key, result.error());
+
+        // the user changed while it was being checked: the outcome may be out of date
+        if (!Objects.equals(generation, generations.get(userId))) {
+            accepted.invalidate(key);
+            rejected.invalidate(key);
+        }
+        return result;
+    }
+
+    private static User withoutPassword(User user) {
+        return new User(user.getUserId(), user.getFullName(), user.getEmail(), null);
+    }
+}
+
+class CredentialsKey {
+
+    final String userId;
+    final byte[] digest;
+
+    CredentialsKey(String userId, String password) {
+        this.userId = userId;
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(userId.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(password.getBytes(StandardCharsets.UTF_8));
+            this.digest = sha.digest();
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CredentialsKey key = (CredentialsKey) o;
+        return userId.equals(key.userId) && Arrays.equals(digest, key.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, Arrays.hashCode(digest));
+    }
+}
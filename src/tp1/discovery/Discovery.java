@@ -3,6 +3,7 @@ package tp1.discovery;
 import tp1.clients.sheet.SpreadsheetClient;
 import tp1.clients.sheet.SpreadsheetMultiClient;
 import tp1.clients.sheet.SpreadsheetRetryClient;
+import tp1.clients.user.UsersCachingClient;
 import tp1.clients.user.UsersClient;
 import tp1.clients.user.UsersRetryClient;
 
@@ -131,7 +132,7 @@ public class Discovery {
 							}
 							else if(service.equals(UsersClient.SERVICE)) {
 								if (!clientUserServer.containsKey(domain))
-									clientUserServer.put(domain, new UsersRetryClient(uri));
+									clientUserServer.put(domain, new UsersCachingClient(new UsersRetryClient(uri)));
 							}
 						}
 					} catch (Exception ignored) {}
@@ -1,9 +1,10 @@
 package tp1.impl;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import com.gembox.spreadsheet.ExcelCell;
 import com.gembox.spreadsheet.ExcelFile;
@@ -11,9 +12,12 @@ import com.gembox.spreadsheet.ExcelWorksheet;
 import com.gembox.spreadsheet.SpreadsheetInfo;
 
 import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.CellType;
 import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.util.Result;
+import tp1.impl.engine.ImportFetcher;
 import tp1.util.CellRange;
+import tp1.util.CellValues;
 
 
 /**
@@ -58,29 +62,33 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 	}
 	
 	
-	public Result<String[][]> computeSpreadsheetValues(Map<String,Long> versions, AbstractSpreadsheet sheet) {
+	public Result<CellValues> computeValues(Map<String,Long> versions, AbstractSpreadsheet sheet) {
+		if (!sheet.hasFormulas())
+			return Result.ok(literalValues(sheet));
+
 		ExcelFile workbook = new ExcelFile();
 		ExcelWorksheet worksheet = workbook.addWorksheet(sheet.sheetId());
 
 		Map<String,String> serverVersions = new HashMap<>();
 
-		for (int i = 0; i < sheet.rows(); i++)
-			for (int j = 0; j < sheet.columns(); j++) {
-				String rawVal = sheet.cellRawValue(i, j);
-				ExcelCell cell = worksheet.getCell(i, j);
-				var r = setCell(versions, sheet, worksheet, cell, rawVal);
-				for (var entry : r.getOthers().entrySet()) {
-					serverVersions.put(entry.getKey(),entry.getValue());
-				}
+		Map<Integer, Result<CellValues>> imported = fetchImports(versions, sheet);
+		for (var values : imported.values())
+			serverVersions.putAll(values.getOthers());
+
+		sheet.forEachCell((i, j) -> {
+			ExcelCell cell = worksheet.getCell(i, j);
+			switch (sheet.cellType(i, j)) {
+				case BOOLEAN, NUMBER, TEXT -> cell.setValue(sheet.cellLiteral(i, j));
+				default -> setCell(worksheet, cell, sheet.cellRawValue(i, j), imported.get(i * sheet.columns() + j));
 			}
+		});
 		worksheet.calculate();
 
-		String[][] cells = new String[sheet.rows()][sheet.columns()];
+		CellValues cells = new CellValues(sheet.rows(), sheet.columns());
 		for (int row = 0; row < sheet.rows(); row++) {
 			for (int col = 0; col < sheet.columns(); col++) {
 				ExcelCell cell = worksheet.getCell(row, col);
-				var value = cell.getValue();
-				cells[row][col] = value != null ? value.toString() : ERROR;
+				cells.set(row, col, cell.getValue());
 			}
 		}
 
@@ -90,10 +98,45 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 		return result;
 	}
 	
-	enum CellType { EMPTY, BOOLEAN, NUMBER, IMPORTRANGE, TEXT, FORMULA };
-	
-	static Result<Void> setCell(Map<String,Long> versions, AbstractSpreadsheet sheet, ExcelWorksheet worksheet, ExcelCell cell, String rawVal ) {
-		CellType type = parseRawValue( rawVal );
+	/**
+	 * The values of a sheet without formulas, skipping the workbook. As in a calculated workbook, the cells
+	 * never given a value are errors.
+	 */
+	static CellValues literalValues(AbstractSpreadsheet sheet) {
+		CellValues cells = new CellValues(sheet.rows(), sheet.columns());
+		for (int row = 0; row < sheet.rows(); row++)
+			for (int col = 0; col < sheet.columns(); col++)
+				cells.set(row, col, null);
+		sheet.forEachCell((row, col) -> cells.set(row, col, sheet.cellLiteral(row, col)));
+		return cells;
+	}
+
+	/**
+	 * Fetches the ranges of all the "=importrange(...)" cells of the sheet at once, before filling the worksheet.
+	 * @return the imported values, indexed by row * columns + column.
+	 */
+	static Map<Integer, Result<CellValues>> fetchImports(Map<String,Long> versions, AbstractSpreadsheet sheet) {
+		List<Integer> cells = new ArrayList<>();
+		List<String[]> imports = new ArrayList<>();
+		sheet.forEachCell((i, j) -> {
+			if (sheet.cellType(i, j) == CellType.IMPORTRANGE) {
+				var matcher = CellType.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(i, j));
+				if (matcher.matches()) {
+					cells.add(i * sheet.columns() + j);
+					imports.add(new String[] { matcher.group(1), matcher.group(2) });
+				}
+			}
+		});
+
+		Map<Integer, Result<CellValues>> imported = new HashMap<>();
+		var results = ImportFetcher.fetch(versions, sheet, imports);
+		for (int i = 0; i < cells.size(); i++)
+			imported.put(cells.get(i), results.get(i));
+		return imported;
+	}
+
+	static void setCell(ExcelWorksheet worksheet, ExcelCell cell, String rawVal, Result<CellValues> imported) {
+		CellType type = CellType.of( rawVal );
 
 		switch (type) {
 			case BOOLEAN -> cell.setValue(Boolean.parseBoolean(rawVal));
@@ -101,61 +144,32 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 			case FORMULA -> cell.setFormula(rawVal);
 			case TEXT, EMPTY -> cell.setValue(rawVal);
 			case IMPORTRANGE -> {
-				var matcher = IMPORTRANGE_PATTERN.matcher(rawVal);
+				var matcher = CellType.IMPORTRANGE_PATTERN.matcher(rawVal);
 				if (matcher.matches()) {
-					var sheetUrl = matcher.group(1);
 					var range = matcher.group(2);
-					Result<String[][]> values = sheet.rangeValues(versions, sheetUrl, range);
-					if (values.isOK())
-						applyRange(worksheet, cell, new CellRange(range), values.value());
+					if (imported != null && imported.isOK())
+						applyRange(worksheet, cell, new CellRange(range), imported.value());
 					else
 						cell.setValue(ERROR);
-
-					Result<Void> result = Result.ok();
-					result.setOthers(values.getOthers());
-					return result;
 				}
 			}
 		}
-		return Result.ok();
 	}
 	
 	
-	private static void applyRange(ExcelWorksheet worksheet, ExcelCell cell0, CellRange range, String[][] values) {
+	private static void applyRange(ExcelWorksheet worksheet, ExcelCell cell0, CellRange range, CellValues values) {
 		int row0 = cell0.getRow().getIndex(), col0 = cell0.getColumn().getIndex();
 
 		for (int r = 0; r < range.rows(); r++)
 			for (int c = 0; c < range.cols(); c++) {
 				var cell = worksheet.getCell(row0 + r, col0 + c);
-				setCell(null,null, worksheet, cell, values[r][c]);
+				var value = values.get(r, c);
+				cell.setValue(value != null ? value : ERROR);
 			}
 	}
 
-	static CellType parseRawValue(String rawVal) {
-		if (rawVal.length() == 0)
-			return CellType.EMPTY;
-
-		rawVal = rawVal.toLowerCase();
-
-		if (rawVal.charAt(0) == '=')
-			return rawVal.startsWith(IMPORTRANGE_FORMULA) ? CellType.IMPORTRANGE : CellType.FORMULA;
-
-		if (rawVal.equals("true") || rawVal.equals("false"))
-			return CellType.BOOLEAN;
-
-		try {
-			Double.parseDouble(rawVal);
-			return CellType.NUMBER;
-		} catch (Exception x) {
-		}
-		return CellType.TEXT;
-	}
-	
 	static {
 		SpreadsheetInfo.setLicense("FREE-LIMITED-KEY");
 	}
 	
-	private static final String URL_REGEX = "(.+)";
-	private static final String IMPORTRANGE_FORMULA = "=importrange";
-	private static final Pattern IMPORTRANGE_PATTERN = Pattern.compile(String.format("=importrange\\(\"%s\",\"(%s)\"\\)", URL_REGEX, CellRange.RANGE_REGEX));
 }
@@ -1,31 +1,148 @@
 package tp1.impl;
 
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import org.apache.commons.lang3.tuple.Pair;
 import tp1.api.Spreadsheet;
 import tp1.api.User;
 import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.util.Result;
+import tp1.clients.user.UsersCachingClient;
+import tp1.clients.user.UsersClient;
 import tp1.discovery.Discovery;
+import tp1.impl.engine.SpreadsheetEngines;
 import tp1.util.Cell;
 import tp1.util.CellRange;
+import tp1.util.CellValues;
+import tp1.util.ETags;
+import tp1.util.ServerSecret;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class SpreadsheetsImpl {
 
+    // number of locks writes to the sheets are spread over
+    private static final int LOCK_STRIPES = 64;
+
     private final String domainId;
 
     private final Map<String, Spreadsheet> spreadsheets;
     private final Map<String, Set<String>> spreadsheetOwners;
 
+    private final Map<String, Long> spreadsheetVersions;
+
+    private final Supplier<UsersClient> users;
     private final SpreadsheetEngine engine;
+    private final ValuesCache valuesCache;
+
+    // writes to a sheet hold the lock of its stripe, writes to the sheets of an owner the lock of the owner's stripe
+    private final Object[] locks;
 
     public SpreadsheetsImpl(String domainId) {
+        this(domainId, Discovery::getLocalUsersClient);
+    }
+
+    /**
+     * @param users - gives the client of the users service of the domain, which is only known once it is discovered.
+     */
+    SpreadsheetsImpl(String domainId, Supplier<UsersClient> users) {
         this.domainId = domainId;
-        this.spreadsheets = new HashMap<>();
-        this.spreadsheetOwners = new HashMap<>();
-        this.engine = SpreadsheetEngineImpl.getInstance();
+        this.users = users;
+        this.spreadsheets = new ConcurrentHashMap<>();
+        this.spreadsheetOwners = new ConcurrentHashMap<>();
+        this.spreadsheetVersions = new ConcurrentHashMap<>();
+        this.engine = SpreadsheetEngines.getInstance();
+        this.valuesCache = new ValuesCache(domainId);
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * @return the lock of the stripe of a sheet or user. Only one is held at a time, and never while calling
+     * the users service.
+     */
+    private Object lock(String key) {
+        return locks[Math.floorMod(key.hashCode(), locks.length)];
+    }
+
+    private void changed(Spreadsheet sheet) {
+        spreadsheetVersions.merge(sheet.getSheetId(), 1L, Long::sum);
+        valuesCache.invalidate(sheet.getSheetId(), sheet.getSheetURL());
+    }
+
+    /**
+     * Publishes the next version of a sheet, a changed copy of the current one. Sheets are never changed once
+     * published: readers keep computing and serializing the version they got, without locking, and it is
+     * reclaimed when the last of them is done. Called holding the lock of the sheet.
+     */
+    private void publish(Spreadsheet sheet) {
+        // the sheet before its version: readers that see the new version, having read it first, see the new sheet
+        spreadsheets.put(sheet.getSheetId(), sheet);
+        changed(sheet);
+    }
+
+    /**
+     * Computes the values of a spreadsheet, or of a window of it. The values of a window are sliced from the cached
+     * values of the whole spreadsheet if there are any; otherwise the engine computes only the cells of the window
+     * and the cells they depend on.
+     * @param window - the window, already within the spreadsheet, or null for the whole spreadsheet.
+     */
+    private Result<CellValues> computeValues(Map<String,Long> versions, Spreadsheet sheet, long version, CellRange window) {
+        Result<CellValues> values;
+        if (window == null)
+            values = valuesCache.computeValues(versions, sheet, version, engine);
+        else if (window.isEmpty())
+            values = Result.ok(new CellValues(0, 0));
+        else {
+            Result<CellValues> cached = valuesCache.getIfPresent(versions, sheet, version);
+            if (cached == null)
+                values = engine.computeValues(versions, sheet, window);
+            else {
+                values = Result.ok(cached.value().slice(window));
+                values.setOthers(cached.getOthers());
+            }
+        }
+
+        if (values.isOK())
+            values.getOthers().put(HttpHeaders.ETAG, valuesCache.tag(versions, sheet, version, window));
+        return values;
+    }
+
+    /**
+     * Parses the window of a values request: either a range or a number of rows starting at an offset.
+     * @param range - the range, e.g. A1:C50, possibly null.
+     * @param rowOffset - the index of the first row, possibly null.
+     * @param rowLimit - the maximum number of rows, possibly null.
+     * @return the window, not yet limited to the bounds of any spreadsheet, or no value if none was asked for.
+     */
+    public static Result<CellRange> window(String range, Integer rowOffset, Integer rowLimit) {
+        if (range == null && rowOffset == null && rowLimit == null)
+            return Result.ok();
+
+        if (range != null) {
+            CellRange window = new CellRange(range);
+            if (rowOffset != null || rowLimit != null || window.topRow < 0 || window.isEmpty())
+                return Result.error(Response.Status.BAD_REQUEST);
+            return Result.ok(window);
+        }
+
+        int offset = rowOffset == null ? 0 : rowOffset;
+        if (offset < 0 || (rowLimit != null && rowLimit < 0))
+            return Result.error(Response.Status.BAD_REQUEST);
+
+        // the bounds are limited to the spreadsheet later; keep them low enough for rows() and cols() not to overflow
+        long last = rowLimit == null ? Integer.MAX_VALUE - 1 : Math.min(Integer.MAX_VALUE - 1, (long) offset + rowLimit - 1);
+        return Result.ok(new CellRange(offset, 0, (int) last, Integer.MAX_VALUE - 1));
+    }
+
+    /**
+     * @return the part of the window within the spreadsheet, null if the window is null.
+     */
+    public static CellRange window(CellRange window, Spreadsheet sheet) {
+        return window == null ? null : window.intersection(new CellRange(0, 0, sheet.getRows() - 1, sheet.getColumns() - 1));
     }
 
     public Result<String> createSpreadsheet(Spreadsheet sheet, String password) {
@@ -36,25 +153,20 @@ public class SpreadsheetsImpl {
         if (sheet.getColumns() <= 0 || sheet.getRows() <= 0)
             return Result.error(Response.Status.BAD_REQUEST);
 
-        synchronized(this) {
+        String spreadsheetOwner = sheet.getOwner();
 
-            String spreadsheetOwner = sheet.getOwner();
-
-            Result<User> result = Discovery.getLocalUsersClient().getUser(spreadsheetOwner, password);
-            if(!result.isOK())
-                return Result.error(Response.Status.BAD_REQUEST);
+        Result<User> result = users.get().getUser(spreadsheetOwner, password);
+        if(!result.isOK())
+            return Result.error(Response.Status.BAD_REQUEST);
 
-            Spreadsheet spreadsheet = new Spreadsheet(sheet,domainId);
+        Spreadsheet spreadsheet = new Spreadsheet(sheet,domainId);
 
+        synchronized (lock(spreadsheetOwner)) {
             spreadsheets.put(spreadsheet.getSheetId(), spreadsheet);
-
-            if (!spreadsheetOwners.containsKey(spreadsheetOwner))
-                spreadsheetOwners.put(spreadsheetOwner, new TreeSet<>());
-
-            spreadsheetOwners.get(spreadsheetOwner).add(spreadsheet.getSheetId());
-
-            return Result.ok(spreadsheet.getSheetId());
+            spreadsheetOwners.computeIfAbsent(spreadsheetOwner, owner -> ConcurrentHashMap.newKeySet()).add(spreadsheet.getSheetId());
         }
+
+        return Result.ok(spreadsheet.getSheetId());
     }
 
     public Result<Void> deleteSpreadsheet(String sheetId, String password) {
@@ -63,22 +175,30 @@ public class SpreadsheetsImpl {
             return Result.error(Response.Status.BAD_REQUEST);
         }
 
-        synchronized (this) {
+        Spreadsheet sheet = spreadsheets.get(sheetId);
 
-            Spreadsheet sheet = spreadsheets.get(sheetId);
+        if( sheet == null ) {
+            return Result.error(Response.Status.NOT_FOUND);
+        }
 
-            if( sheet == null ) {
-                return Result.error(Response.Status.NOT_FOUND);
-            }
+        Result<User> result = users.get().getUser(sheet.getOwner(), password);
+        if(result.error() == Result.ErrorCode.FORBIDDEN)
+            return Result.error(Response.Status.FORBIDDEN);
+        else if(!result.isOK())
+            return Result.error(Response.Status.BAD_REQUEST);
 
-            Result<User> result = Discovery.getLocalUsersClient().getUser(sheet.getOwner(), password);
-            if(result.error() == Result.ErrorCode.FORBIDDEN)
-                return Result.error(Response.Status.FORBIDDEN);
-            else if(!result.isOK())
-                return Result.error(Response.Status.BAD_REQUEST);
+        synchronized (lock(sheetId)) {
+
+            // deleted while the owner was authenticated
+            if (spreadsheets.remove(sheetId) == null)
+                return Result.error(Response.Status.NOT_FOUND);
 
-            spreadsheetOwners.get(sheet.getOwner()).remove(sheetId);
-            spreadsheets.remove(sheetId);
+            Set<String> owned = spreadsheetOwners.get(sheet.getOwner());
+            if (owned != null)
+                owned.remove(sheetId);
+            engine.invalidateSheet(sheetId);
+            changed(sheet);
+            spreadsheetVersions.remove(sheetId);
 
             return Result.ok();
         }
@@ -96,7 +216,7 @@ public class SpreadsheetsImpl {
             return Result.error(Response.Status.NOT_FOUND);
         }
 
-        Result<User> result = Discovery.getLocalUsersClient().getUser(userId, password);
+        Result<User> result = users.get().getUser(userId, password);
         if(result.error() == Result.ErrorCode.FORBIDDEN) {
             return Result.error(Response.Status.FORBIDDEN);
         }
@@ -115,12 +235,36 @@ public class SpreadsheetsImpl {
         return Result.ok(sheet);
     }
 
+    /**
+     * Retrieves a spreadsheet, unless the caller already has its current version.
+     * @param ifNoneMatch - the If-None-Match header sent by the caller, possibly null.
+     * @return the spreadsheet, or no value if the header matches; the entity tag of the spreadsheet, derived from
+     * its version, is returned among the others.
+     */
+    public Result<Spreadsheet> getSpreadsheet(String sheetId, String userId, String password, String ifNoneMatch) {
+
+        // read before the sheet, so that a concurrent update can only make the tag older than the sheet
+        String etag = ETags.of(spreadsheetVersions.getOrDefault(sheetId == null ? "" : sheetId, 0L));
+
+        Result<Spreadsheet> result = getSpreadsheet(sheetId, userId, password);
+        if (!result.isOK())
+            return result;
+
+        if (ETags.matches(ifNoneMatch, etag))
+            result = Result.ok();
+        result.getOthers().put(HttpHeaders.ETAG, etag);
+        return result;
+    }
+
     public Result<String[][]> getReferencedSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String range) {
 
         if( sheetId == null || userId == null || range == null) {
             return Result.error(Response.Status.BAD_REQUEST);
         }
 
+        // read before the sheet, so that a concurrent update can only make the version older than the sheet
+        long version = spreadsheetVersions.getOrDefault(sheetId, 0L);
+
         Spreadsheet spreadsheet = spreadsheets.get(sheetId);
 
         if( spreadsheet == null ) {
@@ -131,30 +275,64 @@ public class SpreadsheetsImpl {
             return Result.error(Response.Status.BAD_REQUEST);
         }
 
+        CellRange cellRange = new CellRange(range);
+
+        // reuse the values of the whole sheet if cached, otherwise compute only what the range needs
         Result<String[][]> values;
         try {
-           values = engine.computeSpreadsheetValues(versions, spreadsheet);
+            Result<CellValues> cached = valuesCache.getIfPresent(versions, spreadsheet, version);
+            if (cached == null) {
+                values = engine.computeSpreadsheetValues(versions, spreadsheet, cellRange);
+                return values.isOK() ? values : Result.error(Response.Status.BAD_REQUEST);
+            }
+            values = Result.ok(cached.value().slice(cellRange).toStrings());
+            values.setOthers(cached.getOthers());
         } catch (Exception e) {
             e.printStackTrace();
             throw e;
         }
-        if(!values.isOK())
-            return Result.error(Response.Status.BAD_REQUEST);
-
-        Result<String[][]> result = Result.ok(new CellRange(range).extractRangeValuesFrom(values.value()));
-        result.setOthers(values.getOthers());
 
-        return result;
+        return values;
     }
 
     public Result<String[][]> getSpreadsheetValues(Map<String,Long> versions, String sheetId, String userId, String password) {
+        return SpreadsheetEngine.toStrings(getCellValues(versions, sheetId, userId, password, null, null));
+    }
+
+    /**
+     * Retrieves the values of a spreadsheet, unless the caller already has them. The entity tag of the values
+     * depends only on the version of the spreadsheet and the versions of the remote domains, so a matching
+     * If-None-Match header is answered without computing the values.
+     * @param ifNoneMatch - the If-None-Match header sent by the caller, possibly null.
+     * @param window - the cells whose values are returned, as given by window(), or null for all of them.
+     * The values are returned as computed, not converted to strings, so that they can be streamed out without
+     * copying them; those of the whole spreadsheet are the instance held by the values cache and must not be
+     * modified.
+     * @return the values, or no value if the header matches; the entity tag is returned among the others.
+     */
+    public Result<CellValues> getCellValues(Map<String,Long> versions, String sheetId, String userId, String password, String ifNoneMatch, CellRange window) {
+
+        // read before the sheet, so that a concurrent update can only make the version older than the sheet
+        long version = spreadsheetVersions.getOrDefault(sheetId == null ? "" : sheetId, 0L);
 
         Result<Spreadsheet> spreadsheet = getSpreadsheet(sheetId, userId, password);
 
         if (!spreadsheet.isOK())
             return Result.error(spreadsheet.error());
 
-        return engine.computeSpreadsheetValues(versions, spreadsheet.value());
+        window = window(window, spreadsheet.value());
+
+        String etag = valuesCache.tag(versions, spreadsheet.value(), version, window);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            Result<CellValues> result = Result.ok();
+            Result<CellValues> cached = valuesCache.getIfPresent(versions, spreadsheet.value(), version);
+            if (cached != null)
+                result.setOthers(cached.getOthers());
+            result.getOthers().put(HttpHeaders.ETAG, etag);
+            return result;
+        }
+
+        return computeValues(versions, spreadsheet.value(), version, window);
     }
 
     public Result<Void> updateCell(String sheetId, String cell, String rawValue, String userId, String password) {
@@ -163,17 +341,24 @@ public class SpreadsheetsImpl {
             return Result.error(Response.Status.BAD_REQUEST);
         }
 
-        synchronized(this) {
+        Result<Spreadsheet> spreadsheet = getSpreadsheet(sheetId, userId, password);
 
-            Result<Spreadsheet> spreadsheet = getSpreadsheet(sheetId, userId, password);
+        if (!spreadsheet.isOK())
+            return Result.error(spreadsheet.error());
+
+        synchronized (lock(sheetId)) {
 
-            if (!spreadsheet.isOK())
-                return Result.error(spreadsheet.error());
+            // deleted while the user was authenticated
+            Spreadsheet current = spreadsheets.get(sheetId);
+            if (current == null)
+                return Result.error(Response.Status.NOT_FOUND);
 
             try {
                 Pair<Integer,Integer> coordinates =  Cell.CellId2Indexes(cell);
 
-                spreadsheet.value().placeCellRawValue(coordinates.getLeft(),coordinates.getRight(), rawValue);
+                Spreadsheet next = current.copy();
+                next.placeCellRawValue(coordinates.getLeft(),coordinates.getRight(), rawValue);
+                publish(next);
             } catch (Exception e) {
                 return Result.error(Response.Status.BAD_REQUEST);
             }
@@ -182,6 +367,60 @@ public class SpreadsheetsImpl {
         }
     }
 
+    /**
+     * Updates the raw values of several cells of a spreadsheet at once, authenticating the user a single time.
+     * Either all the cells are updated or, if any of them is invalid, none is.
+     * @param rawValues - the new raw values, by cell id (e.g. A1).
+     */
+    public Result<Void> updateCells(String sheetId, Map<String,String> rawValues, String userId, String password) {
+
+        if( sheetId == null || rawValues == null || userId == null || password == null) {
+            return Result.error(Response.Status.BAD_REQUEST);
+        }
+
+        Result<Spreadsheet> spreadsheet = getSpreadsheet(sheetId, userId, password);
+
+        if (!spreadsheet.isOK())
+            return Result.error(spreadsheet.error());
+
+        Spreadsheet sheet = spreadsheet.value();
+
+        int n = rawValues.size(), i = 0;
+        int[] rows = new int[n], cols = new int[n];
+        String[] values = new String[n];
+        try {
+            for (Map.Entry<String,String> entry : rawValues.entrySet()) {
+                Pair<Integer,Integer> coordinates = Cell.CellId2Indexes(entry.getKey());
+                rows[i] = coordinates.getLeft();
+                cols[i] = coordinates.getRight();
+                values[i] = entry.getValue();
+                if (values[i] == null || rows[i] < 0 || rows[i] >= sheet.getRows() || cols[i] < 0 || cols[i] >= sheet.getColumns())
+                    return Result.error(Response.Status.BAD_REQUEST);
+                i++;
+            }
+        } catch (Exception e) {
+            return Result.error(Response.Status.BAD_REQUEST);
+        }
+
+        if (n == 0)
+            return Result.ok();
+
+        synchronized (lock(sheetId)) {
+
+            // deleted while the user was authenticated
+            Spreadsheet current = spreadsheets.get(sheetId);
+            if (current == null)
+                return Result.error(Response.Status.NOT_FOUND);
+
+            Spreadsheet next = current.copy();
+            for (i = 0; i < n; i++)
+                next.placeCellRawValue(rows[i], cols[i], values[i]);
+            publish(next);
+
+            return Result.ok();
+        }
+    }
+
 
     public Result<Void> shareSpreadsheet(String sheetId, String userId, String password) {
 
@@ -189,26 +428,33 @@ public class SpreadsheetsImpl {
             return Result.error(Response.Status.BAD_REQUEST);
         }
 
-        synchronized (this) {
+        Spreadsheet sheet = spreadsheets.get(sheetId);
+
+        if( sheet == null ) {
+            return Result.error(Response.Status.NOT_FOUND);
+        }
+
+        Result<User> result = users.get().getUser(sheet.getOwner(), password);
+        if(result.error() == Result.ErrorCode.FORBIDDEN)
+            return Result.error(Response.Status.FORBIDDEN);
+        else if(!result.isOK())
+            return Result.error(Response.Status.BAD_REQUEST);
 
-            Spreadsheet sheet = spreadsheets.get(sheetId);
+        synchronized (lock(sheetId)) {
 
-            if( sheet == null ) {
+            // deleted while the owner was authenticated
+            Spreadsheet current = spreadsheets.get(sheetId);
+            if (current == null)
                 return Result.error(Response.Status.NOT_FOUND);
-            }
-
-            Result<User> result = Discovery.getLocalUsersClient().getUser(sheet.getOwner(), password);
-            if(result.error() == Result.ErrorCode.FORBIDDEN)
-                return Result.error(Response.Status.FORBIDDEN);
-            else if(!result.isOK())
-                return Result.error(Response.Status.BAD_REQUEST);
 
-            Set<String> sharedWith = sheet.getSharedWith();
+            Spreadsheet next = current.copy();
+            Set<String> sharedWith = next.getSharedWith();
 
             if (sharedWith.contains(userId))
                 return Result.error(Response.Status.CONFLICT);
 
             sharedWith.add(userId);
+            publish(next);
 
             return Result.ok();
         }
@@ -220,43 +466,74 @@ public class SpreadsheetsImpl {
             return Result.error(Response.Status.BAD_REQUEST);
         }
 
-        synchronized (this) {
+        Spreadsheet sheet = spreadsheets.get(sheetId);
 
-            Spreadsheet sheet = spreadsheets.get(sheetId);
+        if( sheet == null ) {
+            return Result.error(Response.Status.NOT_FOUND);
+        }
 
-            Result<User> result = Discovery.getLocalUsersClient().getUser(sheet.getOwner(), password);
-            if(result.error() == Result.ErrorCode.FORBIDDEN)
-                return Result.error(Response.Status.FORBIDDEN);
-            else if(!result.isOK())
-                return Result.error(Response.Status.BAD_REQUEST);
+        Result<User> result = users.get().getUser(sheet.getOwner(), password);
+        if(result.error() == Result.ErrorCode.FORBIDDEN)
+            return Result.error(Response.Status.FORBIDDEN);
+        else if(!result.isOK())
+            return Result.error(Response.Status.BAD_REQUEST);
+
+        synchronized (lock(sheetId)) {
+
+            // deleted while the owner was authenticated
+            Spreadsheet current = spreadsheets.get(sheetId);
+            if (current == null)
+                return Result.error(Response.Status.NOT_FOUND);
 
-            Set<String> sharedWith = sheet.getSharedWith();
+            Spreadsheet next = current.copy();
+            Set<String> sharedWith = next.getSharedWith();
 
             if (!sharedWith.contains(userId))
                 return Result.error(Response.Status.NOT_FOUND);
 
             sharedWith.remove(userId);
+            publish(next);
 
             return Result.ok();
         }
     }
 
     public Result<Void> deleteUserSpreadsheets(String userId, String password) {
-        synchronized (this) {
 
-            Result<User> result = Discovery.getLocalUsersClient().getUser(userId, password);
-            if(result.error() == Result.ErrorCode.FORBIDDEN)
-                return Result.error(Response.Status.FORBIDDEN);
-            else if(!result.isOK() && result.error() != Result.ErrorCode.NOT_FOUND)
-                return Result.error(Response.Status.BAD_REQUEST);
+        Result<User> result = users.get().getUser(userId, password);
+        if(result.error() == Result.ErrorCode.FORBIDDEN)
+            return Result.error(Response.Status.FORBIDDEN);
+        else if(!result.isOK() && result.error() != Result.ErrorCode.NOT_FOUND)
+            return Result.error(Response.Status.BAD_REQUEST);
 
-            Set<String> sheets = spreadsheetOwners.get(userId);
-            if(sheets!=null)
-                sheets.forEach(spreadsheets::remove);
-            spreadsheetOwners.remove(userId);
+        Set<String> sheets;
+        synchronized (lock(userId)) {
+            sheets = spreadsheetOwners.remove(userId);
+        }
 
-            return Result.ok();
+        UsersCachingClient.invalidate(userId);
+
+        if(sheets!=null) {
+            for (String sheetId : sheets) {
+                synchronized (lock(sheetId)) {
+                    Spreadsheet sheet = spreadsheets.remove(sheetId);
+                    engine.invalidateSheet(sheetId);
+                    if (sheet != null) {
+                        changed(sheet);
+                        spreadsheetVersions.remove(sheetId);
+                    }
+                }
+            }
         }
+
+        return Result.ok();
     }
-}
 
+    public Result<Void> invalidateCredentials(String userId, String secret) {
+        if (!ServerSecret.matches(secret))
+            return Result.error(Result.ErrorCode.FORBIDDEN);
+
+        UsersCachingClient.invalidate(userId);
+        return Result.ok();
+    }
+}
@@ -3,6 +3,7 @@ package tp1.impl;
 import tp1.api.User;
 import tp1.api.service.util.Result;
 import tp1.discovery.Discovery;
+import tp1.util.ServerSecret;
 
 import java.util.*;
 
@@ -30,9 +31,11 @@ public class UsersImpl {
             }
 
             users.put(userId, user);
-
-            return Result.ok(userId);
         }
+
+        // a server may still hold that the user does not exist
+        userChanged(user.getUserId());
+        return Result.ok(user.getUserId());
     }
 
 
@@ -58,6 +61,7 @@ public class UsersImpl {
             return Result.error(ErrorCode.BAD_REQUEST );
         }
 
+        User newUser;
         synchronized ( this ) {
             User oldUser = users.get(userId);
 
@@ -69,15 +73,16 @@ public class UsersImpl {
                 return Result.error(ErrorCode.FORBIDDEN );
             }
 
-            User newUser = new User(userId,
+            newUser = new User(userId,
                     user.getFullName() == null ? oldUser.getFullName() : user.getFullName(),
                     user.getEmail() == null ? oldUser.getEmail() : user.getEmail(),
                     user.getPassword() == null ? oldUser.getPassword() : user.getPassword());
 
             users.put(userId, newUser);
-
-            return Result.ok(newUser);
         }
+
+        userChanged(userId);
+        return Result.ok(newUser);
     }
 
     public Result<User> deleteUser(String userId, String password) {
@@ -85,6 +90,7 @@ public class UsersImpl {
             return Result.error(ErrorCode.BAD_REQUEST );
         }
 
+        Result<User> result;
         synchronized ( this ) {
             User user = users.get(userId);
 
@@ -100,11 +106,23 @@ public class UsersImpl {
             if(!deleteSheets.isOK())
                 return Result.error(deleteSheets.error());
 
-            Result<User> result = Result.ok(users.remove(userId));
+            result = Result.ok(users.remove(userId));
             result.setOthers(deleteSheets.getOthers());
-
-            return result;
         }
+
+        userChanged(userId);
+        return result;
+    }
+
+    /**
+     * Tells the spreadsheet servers of the domain to drop what they cached about the credentials of the user. The servers also
+     * drop them on their own after a few seconds, so a server that misses it is not an error, nor is a server without the
+     * secret of the servers, which does not tell them at all.
+     */
+    private void userChanged(String userId) {
+        String secret = ServerSecret.get();
+        if (secret != null)
+            Discovery.getLocalSpreadsheetClients().invalidateCredentials(userId, secret);
     }
 
     public Result<List<User>> searchUsers(String pattern) {
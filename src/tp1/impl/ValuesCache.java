@@ -0,0 +1,254 @@
+package tp1.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import tp1.api.Spreadsheet;
+import tp1.api.engine.CellType;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.service.util.Result;
+import tp1.util.CellRange;
+import tp1.util.CellValues;
+import tp1.util.ETags;
+import tp1.util.ImportPath;
+import tp1.util.Stats;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static tp1.api.service.rest.RestSpreadsheets.HEADER_VERSION;
+
+/**
+ *
+ * Cache of computed spreadsheet values, bounded by the total number of non empty cells it holds and evicted in LRU order.
+ *
+ * Entries are keyed by sheet id, the local version of the sheet and the versions of the remote domains
+ * the caller knows about. Values of sheets with imports are additionally only reused within the same
+ * import period, since the remote sheets may change without the local version changing, and for the same
+ * import path, since imports that would close a cycle or go too deep along it fail.
+ *
+ */
+public class ValuesCache {
+
+    public static final String MAX_CELLS_PROPERTY = "sheets.values.cache.cells";
+    public static final String IMPORT_PERIOD_PROPERTY = "sheets.values.cache.importPeriod";
+
+    private static final long DEFAULT_MAX_CELLS = 4_000_000;
+    private static final long DEFAULT_IMPORT_PERIOD = 1000;
+
+    private final String domainId;
+    private final long importPeriod;
+
+    private final Cache<ValuesKey, CachedValues> cache;
+
+    // the keys of the cached entries by sheet id and by the URL of each sheet they import from, so that invalidate()
+    // finds the entries to drop without going through the whole cache; the sets are only changed inside compute()
+    private final Map<String, Set<ValuesKey>> bySheet = new ConcurrentHashMap<>();
+    private final Map<String, Set<ValuesKey>> byImport = new ConcurrentHashMap<>();
+
+    public ValuesCache(String domainId) {
+        this.domainId = domainId;
+        this.importPeriod = Math.max(1, Long.getLong(IMPORT_PERIOD_PROPERTY, DEFAULT_IMPORT_PERIOD));
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(Long.getLong(MAX_CELLS_PROPERTY, DEFAULT_MAX_CELLS))
+                .weigher((ValuesKey key, CachedValues entry) -> entry.weight())
+                .removalListener((RemovalNotification<ValuesKey, CachedValues> removal) -> {
+                    // a replaced entry keeps its key, which stays indexed
+                    if (removal.getCause() != RemovalCause.REPLACED)
+                        unindex(removal.getKey(), removal.getValue());
+                })
+                .recordStats()
+                .build();
+        Stats.register("values." + domainId, cache::stats);
+    }
+
+    /**
+     * Returns the values of a spreadsheet, computing them with the engine if there is no cached result.
+     * @param versions - the versions of the domains known by the caller.
+     * @param sheet - the spreadsheet.
+     * @param version - the local version of the spreadsheet.
+     * @param engine - the engine used to compute the values on a miss.
+     * @return the values of the spreadsheet.
+     */
+    public Result<CellValues> computeValues(Map<String,Long> versions, Spreadsheet sheet, long version, SpreadsheetEngine engine) {
+        ValuesKey key = key(versions, sheet, version);
+        CachedValues entry = cache.getIfPresent(key);
+
+        if (entry == null) {
+            Result<CellValues> values = engine.computeValues(versions, sheet);
+            if (!values.isOK())
+                return values;
+
+            entry = new CachedValues(values.value(), values.getOthers(), importedSheets(sheet));
+            cache.put(key, entry);
+            index(key, entry);
+        }
+
+        Result<CellValues> result = Result.ok(entry.values);
+        result.setOthers(entry.others);
+        return result;
+    }
+
+    /**
+     * Returns the cached values of a spreadsheet, without computing them.
+     * @return the values of the spreadsheet, or null if they are not cached.
+     */
+    public Result<CellValues> getIfPresent(Map<String,Long> versions, Spreadsheet sheet, long version) {
+        CachedValues entry = cache.getIfPresent(key(versions, sheet, version));
+        if (entry == null)
+            return null;
+
+        Result<CellValues> result = Result.ok(entry.values);
+        result.setOthers(entry.others);
+        return result;
+    }
+
+    /**
+     * Returns the entity tag of the values computeValues() returns for the same arguments, without computing them.
+     * It is derived from the same things as the cache key, so it changes whenever the spreadsheet or the versions
+     * of the remote domains change and, for spreadsheets with imports, every import period.
+     * @param window - the range of the values being returned, null if all of them are.
+     * @return the quoted entity tag.
+     */
+    public String tag(Map<String,Long> versions, Spreadsheet sheet, long version, CellRange window) {
+        ValuesKey key = key(versions, sheet, version);
+        return ETags.of(version, key.period, key.remoteVersions, window, key.path);
+    }
+
+    /**
+     * Drops the values of a spreadsheet and of any cached spreadsheet importing from it.
+     * @param sheetId - the id of the spreadsheet.
+     * @param sheetURL - the URL of the spreadsheet.
+     */
+    public void invalidate(String sheetId, String sheetURL) {
+        Set<ValuesKey> keys = new HashSet<>();
+        Set<ValuesKey> own = bySheet.remove(sheetId);
+        if (own != null)
+            keys.addAll(own);
+        Set<ValuesKey> importers = sheetURL == null ? null : byImport.remove(sheetURL);
+        if (importers != null)
+            keys.addAll(importers);
+        cache.invalidateAll(keys);
+    }
+
+    /**
+     * @return the hit, miss and eviction counters of the cache.
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    private void index(ValuesKey key, CachedValues entry) {
+        add(bySheet, key.sheetId, key);
+        for (String url : entry.imports)
+            add(byImport, url, key);
+
+        // the entry was dropped before it was indexed, so the removal listener found nothing to take out
+        if (!cache.asMap().containsKey(key))
+            unindex(key, entry);
+    }
+
+    private void unindex(ValuesKey key, CachedValues entry) {
+        remove(bySheet, key.sheetId, key);
+        for (String url : entry.imports)
+            remove(byImport, url, key);
+    }
+
+    private static void add(Map<String, Set<ValuesKey>> index, String id, ValuesKey key) {
+        index.compute(id, (k, keys) -> {
+            if (keys == null)
+                keys = new HashSet<>();
+            keys.add(key);
+            return keys;
+        });
+    }
+
+    private static void remove(Map<String, Set<ValuesKey>> index, String id, ValuesKey key) {
+        index.computeIfPresent(id, (k, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private ValuesKey key(Map<String,Long> versions, Spreadsheet sheet, long version) {
+        if (!sheet.hasImports())
+            return new ValuesKey(sheet.getSheetId(), version, remoteVersions(versions), 0, "");
+        return new ValuesKey(sheet.getSheetId(), version, remoteVersions(versions), period(), ImportPath.current().key());
+    }
+
+    private Map<String, Long> remoteVersions(Map<String,Long> versions) {
+        Map<String, Long> remote = new TreeMap<>();
+        for (Map.Entry<String, Long> entry : versions.entrySet())
+            if (!entry.getKey().equalsIgnoreCase(HEADER_VERSION + domainId))
+                remote.put(entry.getKey(), entry.getValue());
+        return remote;
+    }
+
+    private long period() {
+        return System.currentTimeMillis() / importPeriod;
+    }
+
+    private static Set<String> importedSheets(Spreadsheet sheet) {
+        Set<String> imports = new HashSet<>();
+        if (!sheet.hasImports())
+            return imports;
+
+        sheet.forEachCell((row, col) -> {
+            if (sheet.cellType(row, col) == CellType.IMPORTRANGE) {
+                var matcher = CellType.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(row, col));
+                if (matcher.matches())
+                    imports.add(matcher.group(1));
+            }
+        });
+        return imports;
+    }
+}
+
+class ValuesKey {
+
+    final String sheetId;
+    final long version;
+    final Map<String, Long> remoteVersions;
+    final long period;
+    final String path;
+
+    ValuesKey(String sheetId, long version, Map<String, Long> remoteVersions, long period, String path) {
+        this.sheetId = sheetId;
+        this.version = version;
+        this.remoteVersions = remoteVersions;
+        this.period = period;
+        this.path = path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ValuesKey key = (ValuesKey) o;
+        return version == key.version && period == key.period && sheetId.equals(key.sheetId) && remoteVersions.equals(key.remoteVersions) && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sheetId, version, remoteVersions, period, path);
+    }
+}
+
+class CachedValues {
+
+    final CellValues values;
+    final Map<String, String> others;
+    final Set<String> imports;
+
+    CachedValues(CellValues values, Map<String, String> others, Set<String> imports) {
+        this.values = values;
+        this.others = new HashMap<>(others);
+        this.imports = imports;
+    }
+
+    int weight() {
+        return 1 + values.size();
+    }
+}
@@ -0,0 +1,292 @@
+package tp1.impl.engine;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ *
+ * The parsed form of a spreadsheet formula (the text following the leading '=').
+ *
+ * Evaluation yields a Double, a Boolean or a String (the empty string stands for an empty cell),
+ * and throws a FormulaException when the formula evaluates to an error.
+ *
+ */
+public interface Formula {
+
+	/**
+	 * Evaluates this formula.
+	 * @param context - resolves the values of the cells referenced by the formula.
+	 * @return the value of the formula.
+	 */
+	Object evaluate(Context context);
+
+	/**
+	 * Reports every cell and range of cells referenced by this formula.
+	 */
+	void forEachReference(ReferenceVisitor visitor);
+
+	/**
+	 * Gives a formula access to the values of the cells of its spreadsheet.
+	 */
+	interface Context {
+
+		/**
+		 * The number of rows of the spreadsheet.
+		 */
+		int rows();
+
+		/**
+		 * The number of columns of the spreadsheet.
+		 */
+		int cols();
+
+		/**
+		 * The value of the cell at the given coordinates, or the empty string if the cell is empty
+		 * or lies outside the spreadsheet.
+		 */
+		Object cellValue(int row, int col);
+
+		/**
+		 * Summarizes the numbers in a range of cells for the aggregate functions, or returns null if the cells
+		 * have to be visited one by one: when the context cannot do better, or when visiting them would fail.
+		 */
+		default Aggregate aggregate(int topRow, int topCol, int botRow, int botCol) {
+			return null;
+		}
+
+		/**
+		 * Feeds the values of the cells in a range that lie in the spreadsheet to the consumer. Contexts that know
+		 * which cells are populated may skip the empty ones; by default every cell is visited.
+		 */
+		default void forEachValue(int topRow, int topCol, int botRow, int botCol, Consumer<Object> consumer) {
+			for (int row = Math.max(topRow, 0); row <= Math.min(botRow, rows() - 1); row++)
+				for (int col = Math.max(topCol, 0); col <= Math.min(botCol, cols() - 1); col++)
+					consumer.accept(cellValue(row, col));
+		}
+	}
+
+	/**
+	 * The count, sum, minimum and maximum of a set of numbers.
+	 */
+	final class Aggregate {
+
+		int count;
+		double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+		Aggregate() {
+		}
+
+		Aggregate(int count, double sum, double min, double max) {
+			this.count = count;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+		}
+
+		void add(double value) {
+			count++;
+			sum += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		void add(Aggregate other) {
+			count += other.count;
+			sum += other.sum;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+	}
+
+	/**
+	 * Receives the references found in a formula.
+	 */
+	interface ReferenceVisitor {
+
+		void cell(int row, int col);
+
+		void range(int topRow, int topCol, int botRow, int botCol);
+	}
+}
+
+class NumberNode implements Formula {
+
+	final Double value;
+
+	NumberNode(double value) {
+		this.value = value;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		return value;
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {}
+}
+
+class TextNode implements Formula {
+
+	final String value;
+
+	TextNode(String value) {
+		this.value = value;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		return value;
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {}
+}
+
+class BooleanNode implements Formula {
+
+	final Boolean value;
+
+	BooleanNode(boolean value) {
+		this.value = value;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		return value;
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {}
+}
+
+class CellNode implements Formula {
+
+	final int row, col;
+
+	CellNode(int row, int col) {
+		this.row = row;
+		this.col = col;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		return context.cellValue(row, col);
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {
+		visitor.cell(row, col);
+	}
+}
+
+class RangeNode implements Formula {
+
+	final int topRow, topCol, botRow, botCol;
+
+	RangeNode(int topRow, int topCol, int botRow, int botCol) {
+		this.topRow = Math.min(topRow, botRow);
+		this.topCol = Math.min(topCol, botCol);
+		this.botRow = Math.max(topRow, botRow);
+		this.botCol = Math.max(topCol, botCol);
+	}
+
+	/**
+	 * A range only makes sense as a function argument.
+	 */
+	@Override
+	public Object evaluate(Context context) {
+		throw new FormulaException("#VALUE!");
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {
+		visitor.range(topRow, topCol, botRow, botCol);
+	}
+}
+
+class UnaryNode implements Formula {
+
+	final char op;
+	final Formula operand;
+
+	UnaryNode(char op, Formula operand) {
+		this.op = op;
+		this.operand = operand;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		double value = Values.toNumber(operand.evaluate(context));
+		return switch (op) {
+			case '-' -> -value;
+			case '%' -> value / 100;
+			default -> value;
+		};
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {
+		operand.forEachReference(visitor);
+	}
+}
+
+class BinaryNode implements Formula {
+
+	final String op;
+	final Formula left, right;
+
+	BinaryNode(String op, Formula left, Formula right) {
+		this.op = op;
+		this.left = left;
+		this.right = right;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		Object l = left.evaluate(context), r = right.evaluate(context);
+		return switch (op) {
+			case "+" -> Values.checked(Values.toNumber(l) + Values.toNumber(r));
+			case "-" -> Values.checked(Values.toNumber(l) - Values.toNumber(r));
+			case "*" -> Values.checked(Values.toNumber(l) * Values.toNumber(r));
+			case "/" -> Values.checked(Values.divide(Values.toNumber(l), Values.toNumber(r)));
+			case "^" -> Values.checked(Math.pow(Values.toNumber(l), Values.toNumber(r)));
+			case "&" -> Values.toText(l) + Values.toText(r);
+			case "=" -> Values.compare(l, r) == 0;
+			case "<>" -> Values.compare(l, r) != 0;
+			case "<" -> Values.compare(l, r) < 0;
+			case ">" -> Values.compare(l, r) > 0;
+			case "<=" -> Values.compare(l, r) <= 0;
+			case ">=" -> Values.compare(l, r) >= 0;
+			default -> throw new FormulaException("#NAME?");
+		};
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {
+		left.forEachReference(visitor);
+		right.forEachReference(visitor);
+	}
+}
+
+class CallNode implements Formula {
+
+	final String name;
+	final List<Formula> args;
+
+	CallNode(String name, List<Formula> args) {
+		this.name = name;
+		this.args = args;
+	}
+
+	@Override
+	public Object evaluate(Context context) {
+		return Functions.call(name, args, context);
+	}
+
+	@Override
+	public void forEachReference(ReferenceVisitor visitor) {
+		for (Formula arg : args)
+			arg.forEachReference(visitor);
+	}
+}
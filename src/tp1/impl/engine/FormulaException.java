@@ -0,0 +1,13 @@
+package tp1.impl.engine;
+
+/**
+ * Signals that a formula could not be parsed or that its evaluation produced an error value.
+ */
+public class FormulaException extends RuntimeException {
+
+	public FormulaException(String msg) {
+		super(msg);
+	}
+
+	private static final long serialVersionUID = 4117361252036781417L;
+}
@@ -0,0 +1,293 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import tp1.util.CellRange;
+import tp1.util.Stats;
+
+/**
+ *
+ * Recursive descent parser for spreadsheet formulas, e.g. "=SUM(A1:A3)*2" or "=IF(B2>10,"big","small")".
+ *
+ * Operator precedence, from lowest to highest: comparisons (= &lt;&gt; &lt; &gt; &lt;= &gt;=), concatenation (&amp;),
+ * addition (+ -), multiplication (* /), exponentiation (^), sign (+ -) and percent (%).
+ *
+ * Parsed formulas are immutable, so compile() shares them among all the cells and sheets with the same formula
+ * text, keeping up to sheets.formulas.cache.size of them.
+ *
+ */
+public class FormulaParser {
+
+	public static final String CACHE_SIZE_PROPERTY = "sheets.formulas.cache.size";
+
+	private static final long DEFAULT_CACHE_SIZE = 10000;
+
+	private static final Cache<String, Formula> cache = CacheBuilder.newBuilder()
+			.maximumSize(Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE))
+			.recordStats()
+			.build();
+
+	static {
+		Stats.register("formulas", FormulaParser::cacheStats);
+	}
+
+	private final String text;
+	private int pos;
+
+	private FormulaParser(String text) {
+		this.text = text;
+		this.pos = 0;
+	}
+
+	/**
+	 * Parses a formula.
+	 * @param rawValue - the raw value of the cell, including the leading '='.
+	 * @return the parsed formula.
+	 * @throws FormulaException - if the formula is malformed.
+	 */
+	public static Formula parse(String rawValue) {
+		if (rawValue.isEmpty() || rawValue.charAt(0) != '=')
+			throw new FormulaException("not a formula: " + rawValue);
+
+		var parser = new FormulaParser(rawValue.substring(1));
+		Formula formula = parser.comparison();
+		parser.skipSpaces();
+		if (parser.pos < parser.text.length())
+			throw parser.error();
+		return formula;
+	}
+
+	/**
+	 * Parses a formula, or returns the formula previously parsed from the same text.
+	 * @param rawValue - the raw value of the cell, including the leading '='.
+	 * @return the parsed formula.
+	 * @throws FormulaException - if the formula is malformed.
+	 */
+	public static Formula compile(String rawValue) {
+		Formula formula = cache.getIfPresent(rawValue);
+		if (formula == null) {
+			formula = parse(rawValue);
+			cache.put(rawValue, formula);
+		}
+		return formula;
+	}
+
+	/**
+	 * @return the hit, miss and eviction counters of the cache of parsed formulas.
+	 */
+	public static CacheStats cacheStats() {
+		return cache.stats();
+	}
+
+	private Formula comparison() {
+		Formula left = concatenation();
+		for (;;) {
+			String op = match("<>", "<=", ">=", "=", "<", ">");
+			if (op == null)
+				return left;
+			left = new BinaryNode(op, left, concatenation());
+		}
+	}
+
+	private Formula concatenation() {
+		Formula left = additive();
+		while (match("&") != null)
+			left = new BinaryNode("&", left, additive());
+		return left;
+	}
+
+	private Formula additive() {
+		Formula left = multiplicative();
+		for (;;) {
+			String op = match("+", "-");
+			if (op == null)
+				return left;
+			left = new BinaryNode(op, left, multiplicative());
+		}
+	}
+
+	private Formula multiplicative() {
+		Formula left = exponential();
+		for (;;) {
+			String op = match("*", "/");
+			if (op == null)
+				return left;
+			left = new BinaryNode(op, left, exponential());
+		}
+	}
+
+	private Formula exponential() {
+		Formula left = unary();
+		while (match("^") != null)
+			left = new BinaryNode("^", left, unary());
+		return left;
+	}
+
+	private Formula unary() {
+		String op = match("-", "+");
+		if (op != null)
+			return new UnaryNode(op.charAt(0), unary());
+
+		Formula operand = primary();
+		while (match("%") != null)
+			operand = new UnaryNode('%', operand);
+		return operand;
+	}
+
+	private Formula primary() {
+		skipSpaces();
+		if (pos >= text.length())
+			throw error();
+
+		char c = text.charAt(pos);
+		if (c == '(') {
+			pos++;
+			Formula inner = comparison();
+			expect(")");
+			return inner;
+		}
+		if (c == '"')
+			return new TextNode(string());
+		if (Character.isDigit(c) || c == '.')
+			return new NumberNode(number());
+		if (Character.isLetter(c) || c == '$')
+			return reference(identifier());
+
+		throw error();
+	}
+
+	private Formula reference(String name) {
+		if (match("(") != null)
+			return new CallNode(name, arguments());
+
+		if (name.equals("TRUE") || name.equals("FALSE"))
+			return new BooleanNode(name.equals("TRUE"));
+
+		int[] top = cell(name);
+		if (match(":") == null)
+			return new CellNode(top[0], top[1]);
+
+		skipSpaces();
+		int[] bot = cell(identifier());
+		return new RangeNode(top[0], top[1], bot[0], bot[1]);
+	}
+
+	private List<Formula> arguments() {
+		List<Formula> args = new ArrayList<>();
+		if (match(")") != null)
+			return args;
+		do {
+			args.add(comparison());
+		} while (match(",", ";") != null);
+		expect(")");
+		return args;
+	}
+
+	private int[] cell(String name) {
+		var m = CELL_PATTERN.matcher(name);
+		if (!m.matches())
+			throw new FormulaException("#NAME? " + name);
+		if (!fits(m.group(1), m.group(2)))
+			throw new FormulaException("#REF! " + name);
+		return new int[] { CellRange.row(m.group(2)), CellRange.col(m.group(1)) };
+	}
+
+	/**
+	 * Tells if the cells of a range, e.g. "A1:B2", have indices that CellRange can represent.
+	 */
+	static boolean isRange(String range) {
+		String[] cells = range.split(":");
+		for (String cell : cells) {
+			var m = CELL_PATTERN.matcher(cell);
+			if (!m.matches() || !fits(m.group(1), m.group(2)))
+				return false;
+		}
+		return cells.length == 2;
+	}
+
+	private static boolean fits(String col, String row) {
+		return col.length() <= MAX_COL_LENGTH && row.length() <= MAX_ROW_LENGTH;
+	}
+
+	private String identifier() {
+		int start = pos;
+		while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '$' || text.charAt(pos) == '_' || text.charAt(pos) == '.'))
+			pos++;
+		if (start == pos)
+			throw error();
+		return text.substring(start, pos).toUpperCase();
+	}
+
+	private double number() {
+		int start = pos;
+		while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+			pos++;
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			int mark = pos++;
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-'))
+				pos++;
+			if (pos < text.length() && Character.isDigit(text.charAt(pos)))
+				while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+					pos++;
+			else
+				pos = mark;
+		}
+		try {
+			return Double.parseDouble(text.substring(start, pos));
+		} catch (NumberFormatException x) {
+			throw error();
+		}
+	}
+
+	private String string() {
+		var sb = new StringBuilder();
+		pos++;
+		for (;;) {
+			if (pos >= text.length())
+				throw error();
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				if (pos < text.length() && text.charAt(pos) == '"')
+					pos++;
+				else
+					return sb.toString();
+			}
+			sb.append(c);
+		}
+	}
+
+	private String match(String... ops) {
+		skipSpaces();
+		for (String op : ops)
+			if (text.startsWith(op, pos)) {
+				pos += op.length();
+				return op;
+			}
+		return null;
+	}
+
+	private void expect(String op) {
+		if (match(op) == null)
+			throw error();
+	}
+
+	private void skipSpaces() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+
+	private FormulaException error() {
+		return new FormulaException(String.format("malformed formula at %d: =%s", pos + 1, text));
+	}
+
+	// longer column names and row numbers overflow the int indices of the cells
+	private static final int MAX_COL_LENGTH = 6, MAX_ROW_LENGTH = 9;
+
+	private static final Pattern CELL_PATTERN = Pattern.compile("\\$?([A-Z]+)\\$?([1-9][0-9]*)");
+}
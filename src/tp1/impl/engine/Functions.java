@@ -0,0 +1,221 @@
+package tp1.impl.engine;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * The spreadsheet functions understood by the native engine.
+ */
+final class Functions {
+
+	private Functions() {
+	}
+
+	static Object call(String name, List<Formula> args, Formula.Context context) {
+		return switch (name) {
+			case "SUM" -> sum(args, context);
+			case "AVERAGE" -> average(args, context);
+			case "COUNT" -> count(args, context);
+			case "COUNTA" -> countNonEmpty(args, context);
+			case "MIN" -> min(args, context);
+			case "MAX" -> max(args, context);
+			case "PRODUCT" -> product(args, context);
+			case "IF" -> branch(args, context);
+			case "AND" -> and(args, context);
+			case "OR" -> or(args, context);
+			case "NOT" -> !Values.toBoolean(single(args, context));
+			case "ABS" -> Math.abs(Values.toNumber(single(args, context)));
+			case "SQRT" -> Values.checked(Math.sqrt(Values.toNumber(single(args, context))));
+			case "ROUND" -> round(args, context);
+			case "MOD" -> mod(args, context);
+			case "POWER" -> power(args, context);
+			case "CONCATENATE" -> concatenate(args, context);
+			default -> throw new FormulaException("#NAME?");
+		};
+	}
+
+	private static Double sum(List<Formula> args, Formula.Context context) {
+		return Values.checked(aggregate(args, context).sum);
+	}
+
+	private static Double average(List<Formula> args, Formula.Context context) {
+		var aggregate = aggregate(args, context);
+		return Values.checked(Values.divide(aggregate.sum, aggregate.count));
+	}
+
+	private static Double count(List<Formula> args, Formula.Context context) {
+		double[] count = {0};
+		for (Formula arg : args) {
+			if (arg instanceof RangeNode)
+				count[0] += aggregate((RangeNode) arg, context).count;
+			else if (isNumber(arg, context))
+				count[0]++;
+		}
+		return count[0];
+	}
+
+	private static Double countNonEmpty(List<Formula> args, Formula.Context context) {
+		double[] count = {0};
+		for (Formula arg : args) {
+			if (arg instanceof RangeNode)
+				forEachCell((RangeNode) arg, context, v -> { if (!Values.EMPTY.equals(v)) count[0]++; });
+			else if (!Values.EMPTY.equals(arg.evaluate(context)))
+				count[0]++;
+		}
+		return count[0];
+	}
+
+	private static Double min(List<Formula> args, Formula.Context context) {
+		var aggregate = aggregate(args, context);
+		return aggregate.count == 0 ? 0.0 : aggregate.min;
+	}
+
+	private static Double max(List<Formula> args, Formula.Context context) {
+		var aggregate = aggregate(args, context);
+		return aggregate.count == 0 ? 0.0 : aggregate.max;
+	}
+
+	private static Double product(List<Formula> args, Formula.Context context) {
+		double[] product = {1, 0};
+		forEachNumber(args, context, v -> { product[0] *= v; product[1]++; });
+		return product[1] == 0 ? 0.0 : Values.checked(product[0]);
+	}
+
+	private static Object branch(List<Formula> args, Formula.Context context) {
+		arity(args, 2, 3);
+		if (Values.toBoolean(args.get(0).evaluate(context)))
+			return args.get(1).evaluate(context);
+		return args.size() > 2 ? args.get(2).evaluate(context) : Boolean.FALSE;
+	}
+
+	private static Boolean and(List<Formula> args, Formula.Context context) {
+		boolean[] and = {true};
+		forEachLogical(args, context, v -> and[0] &= v);
+		return and[0];
+	}
+
+	private static Boolean or(List<Formula> args, Formula.Context context) {
+		boolean[] or = {false};
+		forEachLogical(args, context, v -> or[0] |= v);
+		return or[0];
+	}
+
+	private static Double round(List<Formula> args, Formula.Context context) {
+		arity(args, 1, 2);
+		double value = Values.toNumber(args.get(0).evaluate(context));
+		int digits = args.size() > 1 ? (int) Values.toNumber(args.get(1).evaluate(context)) : 0;
+		return BigDecimal.valueOf(value).setScale(digits, RoundingMode.HALF_UP).doubleValue();
+	}
+
+	private static Double mod(List<Formula> args, Formula.Context context) {
+		arity(args, 2, 2);
+		double n = Values.toNumber(args.get(0).evaluate(context));
+		double d = Values.toNumber(args.get(1).evaluate(context));
+		return Values.checked(n - d * Math.floor(Values.divide(n, d)));
+	}
+
+	private static Double power(List<Formula> args, Formula.Context context) {
+		arity(args, 2, 2);
+		double base = Values.toNumber(args.get(0).evaluate(context));
+		double exponent = Values.toNumber(args.get(1).evaluate(context));
+		return Values.checked(Math.pow(base, exponent));
+	}
+
+	private static String concatenate(List<Formula> args, Formula.Context context) {
+		var sb = new StringBuilder();
+		for (Formula arg : args)
+			sb.append(Values.toText(arg.evaluate(context)));
+		return sb.toString();
+	}
+
+	/**
+	 * Errors and non-numeric values are not counted.
+	 */
+	private static boolean isNumber(Formula arg, Formula.Context context) {
+		try {
+			Object value = arg.evaluate(context);
+			if (arg instanceof CellNode || Values.EMPTY.equals(value))
+				return value instanceof Double;
+			Values.toNumber(value);
+			return true;
+		} catch (FormulaException x) {
+			return false;
+		}
+	}
+
+	private static Object single(List<Formula> args, Formula.Context context) {
+		arity(args, 1, 1);
+		return args.get(0).evaluate(context);
+	}
+
+	private static void arity(List<Formula> args, int min, int max) {
+		if (args.size() < min || args.size() > max)
+			throw new FormulaException("#N/A");
+	}
+
+	/**
+	 * Aggregates the numeric arguments, as forEachNumber() feeds them, summarizing ranges through the context
+	 * when it can.
+	 */
+	private static Formula.Aggregate aggregate(List<Formula> args, Formula.Context context) {
+		var aggregate = new Formula.Aggregate();
+		for (Formula arg : args) {
+			if (arg instanceof RangeNode)
+				aggregate.add(aggregate((RangeNode) arg, context));
+			else
+				forEachNumber(List.of(arg), context, aggregate::add);
+		}
+		return aggregate;
+	}
+
+	private static Formula.Aggregate aggregate(RangeNode range, Formula.Context context) {
+		var aggregate = context.aggregate(range.topRow, range.topCol, range.botRow, range.botCol);
+		if (aggregate == null) {
+			var visited = new Formula.Aggregate();
+			forEachCell(range, context, v -> { if (v instanceof Double) visited.add((Double) v); });
+			aggregate = visited;
+		}
+		return aggregate;
+	}
+
+	/**
+	 * Feeds the numeric arguments to the consumer. Numbers found in ranges or referenced cells are used as is,
+	 * any other value found there is skipped; values given directly are coerced to numbers.
+	 */
+	private static void forEachNumber(List<Formula> args, Formula.Context context, DoubleConsumer consumer) {
+		for (Formula arg : args) {
+			if (arg instanceof RangeNode)
+				forEachCell((RangeNode) arg, context, v -> { if (v instanceof Double) consumer.accept((Double) v); });
+			else {
+				Object value = arg.evaluate(context);
+				if (!(arg instanceof CellNode))
+					consumer.accept(Values.toNumber(value));
+				else if (value instanceof Double)
+					consumer.accept((Double) value);
+			}
+		}
+	}
+
+	private static void forEachLogical(List<Formula> args, Formula.Context context, Consumer<Boolean> consumer) {
+		for (Formula arg : args) {
+			if (arg instanceof RangeNode)
+				forEachCell((RangeNode) arg, context, v -> {
+					if (v instanceof Double || v instanceof Boolean)
+						consumer.accept(Values.toBoolean(v));
+				});
+			else
+				consumer.accept(Values.toBoolean(arg.evaluate(context)));
+		}
+	}
+
+	/**
+	 * Visits the cells of the range that lie in the spreadsheet; the cells outside it are empty, as are the
+	 * cells the context may skip, which none of the functions count.
+	 */
+	private static void forEachCell(RangeNode range, Formula.Context context, Consumer<Object> consumer) {
+		context.forEachValue(range.topRow, range.topCol, range.botRow, range.botCol, consumer);
+	}
+}
@@ -0,0 +1,242 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.service.util.Result;
+import tp1.util.CellRange;
+import tp1.util.CellValues;
+import tp1.util.Deadline;
+import tp1.util.ImportPath;
+
+/**
+ *
+ * Fetches the ranges imported by a spreadsheet concurrently, so that a computation waits for the slowest remote
+ * sheet instead of the sum of all of them.
+ *
+ * Imports from the same remote sheet whose ranges overlap or lie close together are merged into a single fetch of
+ * their bounding range, which is then sliced locally, so each remote sheet is usually computed once per
+ * computation. If a merged fetch fails, its imports are fetched again one by one. The fetched values are parsed into
+ * CellValues once, so the engines consume the imported numbers and booleans without parsing them again.
+ *
+ * Fetches run on a bounded pool shared by all computations (sheets.imports.threads) and each computation waits at
+ * most sheets.imports.deadline milliseconds for its imports, or until the deadline of its request if that comes
+ * first; ranges not fetched by then count as unavailable, and nothing is fetched once the deadline has passed.
+ *
+ */
+public class ImportFetcher {
+
+	public static final String THREADS_PROPERTY = "sheets.imports.threads";
+	public static final String DEADLINE_PROPERTY = "sheets.imports.deadline";
+
+	private static final int DEFAULT_THREADS = 16;
+	private static final long DEFAULT_DEADLINE = 10000;
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS), r -> {
+		Thread thread = new Thread(r, "importrange");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ImportFetcher() {
+	}
+
+	/**
+	 * Fetches the given ranges.
+	 * @param versions - the versions of the domains known by the caller.
+	 * @param sheet - the spreadsheet importing the ranges.
+	 * @param imports - the imported ranges, as {sheetURL, range} pairs.
+	 * @return the result of each import, in the same order.
+	 */
+	public static List<Result<CellValues>> fetch(Map<String,Long> versions, AbstractSpreadsheet sheet, List<String[]> imports) {
+		List<MergedImport> merged = merge(imports);
+		var fetched = fetchAll(versions, sheet, merged);
+
+		// a merged fetch fails as a whole, e.g. when one of its ranges lies outside the remote sheet, so its
+		// imports are fetched again one by one and only the ones at fault fail
+		List<MergedImport> retries = new ArrayList<>();
+		for (int m = 0; m < merged.size(); m++)
+			if (!fetched.get(m).isOK() && merged.get(m).imports.size() > 1)
+				for (int i : merged.get(m).imports)
+					retries.add(new MergedImport(imports.get(i)[0], imports.get(i)[1], i));
+		var retried = fetchAll(versions, sheet, retries);
+
+		@SuppressWarnings("unchecked")
+		Result<CellValues>[] results = new Result[imports.size()];
+		for (int m = 0; m < merged.size(); m++)
+			for (int i : merged.get(m).imports)
+				results[i] = slice(fetched.get(m), imports.get(i)[1], merged.get(m));
+		for (int r = 0; r < retries.size(); r++)
+			results[retries.get(r).imports.get(0)] = retried.get(r);
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Merges the imports of the same remote sheet whose ranges overlap or lie close together, as long as their
+	 * bounding range holds at most twice as many cells as they do, so that distant ranges are fetched apart.
+	 */
+	private static List<MergedImport> merge(List<String[]> imports) {
+		Map<String, List<MergedImport>> bySheet = new LinkedHashMap<>();
+		for (int i = 0; i < imports.size(); i++) {
+			String sheetURL = imports.get(i)[0];
+			var merged = bySheet.computeIfAbsent(sheetURL, k -> new ArrayList<>());
+			var current = new MergedImport(sheetURL, imports.get(i)[1], i);
+			if (current.bound == null) {
+				merged.add(current);
+				continue;
+			}
+
+			// merging may bring the bounding range close to ranges merged before, so merge until nothing changes
+			for (boolean changed = true; changed; ) {
+				changed = false;
+				for (var it = merged.iterator(); it.hasNext(); ) {
+					var other = it.next();
+					if (other.bound != null && close(current, other)) {
+						it.remove();
+						current = current.with(other);
+						changed = true;
+					}
+				}
+			}
+			merged.add(current);
+		}
+
+		List<MergedImport> all = new ArrayList<>();
+		bySheet.values().forEach(all::addAll);
+		return all;
+	}
+
+	private static boolean close(MergedImport a, MergedImport b) {
+		return cells(a.bound.union(b.bound)) <= 2 * (a.cells + b.cells);
+	}
+
+	static long cells(CellRange range) {
+		return (long) range.rows() * range.cols();
+	}
+
+	private static List<Result<CellValues>> fetchAll(Map<String,Long> versions, AbstractSpreadsheet sheet, List<MergedImport> merged) {
+		List<Result<CellValues>> results = new ArrayList<>(merged.size());
+		if (merged.isEmpty())
+			return results;
+
+		Deadline deadline = Deadline.current();
+		if (deadline.expired()) {
+			while (results.size() < merged.size())
+				results.add(Result.error(Result.ErrorCode.NOT_AVAILABLE, new Exception("Deadline exceeded")));
+			return results;
+		}
+
+		if (merged.size() == 1) {
+			results.add(typed(sheet.rangeValues(versions, merged.get(0).sheetURL, merged.get(0).range)));
+			return results;
+		}
+
+		// the fetches belong to the request of the calling thread
+		ImportPath path = ImportPath.current();
+
+		List<Callable<Result<CellValues>>> tasks = new ArrayList<>(merged.size());
+		for (var m : merged) {
+			String sheetURL = m.sheetURL, range = m.range;
+			tasks.add(() -> Deadline.with(deadline, () -> ImportPath.with(path, () -> typed(sheet.rangeValues(versions, sheetURL, range)))));
+		}
+
+		try {
+			for (Future<Result<CellValues>> future : executor.invokeAll(tasks, deadline.cap(Long.getLong(DEADLINE_PROPERTY, DEFAULT_DEADLINE)), TimeUnit.MILLISECONDS))
+				results.add(resultOf(future));
+		} catch (InterruptedException x) {
+			Thread.currentThread().interrupt();
+			while (results.size() < merged.size())
+				results.add(Result.error(Result.ErrorCode.NOT_AVAILABLE, x));
+		}
+		return results;
+	}
+
+	/**
+	 * Extracts one of the merged ranges from the values fetched for their bounding range.
+	 */
+	private static Result<CellValues> slice(Result<CellValues> fetched, String range, MergedImport merged) {
+		if (!fetched.isOK() || merged.imports.size() == 1)
+			return fetched;
+
+		Result<CellValues> result;
+		try {
+			result = Result.ok(fetched.value().slice(new CellRange(range).relativeTo(merged.bound)));
+		} catch (RuntimeException x) {
+			result = Result.error(Result.ErrorCode.BAD_REQUEST, x);
+		}
+		result.setOthers(fetched.getOthers());
+		return result;
+	}
+
+	private static Result<CellValues> typed(Result<String[][]> fetched) {
+		Result<CellValues> result = fetched.isOK() ? Result.ok(CellValues.of(fetched.value())) : Result.error(fetched.error());
+		result.setOthers(fetched.getOthers());
+		return result;
+	}
+
+	private static Result<CellValues> resultOf(Future<Result<CellValues>> future) {
+		try {
+			return future.get();
+		} catch (CancellationException x) {
+			return Result.error(Result.ErrorCode.NOT_AVAILABLE, x);
+		} catch (Exception x) {
+			return Result.error(Result.ErrorCode.INTERNAL_ERROR, x);
+		}
+	}
+}
+
+/**
+ * Imports of the same remote sheet fetched together, as their bounding range.
+ */
+class MergedImport {
+
+	final String sheetURL, range;
+	final List<Integer> imports;
+
+	// the range fetched, null if it is not a valid range, which is then fetched as it is, for the remote sheet to reject
+	final CellRange bound;
+
+	// cells of the merged ranges, counting overlapping cells once per range
+	final long cells;
+
+	MergedImport(String sheetURL, String range, int i) {
+		this.sheetURL = sheetURL;
+		this.range = range;
+		this.imports = List.of(i);
+		this.bound = parse(range);
+		this.cells = bound == null ? 0 : ImportFetcher.cells(bound);
+	}
+
+	private MergedImport(String sheetURL, CellRange bound, List<Integer> imports, long cells) {
+		this.sheetURL = sheetURL;
+		this.range = bound.toRangeString();
+		this.imports = imports;
+		this.bound = bound;
+		this.cells = cells;
+	}
+
+	MergedImport with(MergedImport other) {
+		List<Integer> all = new ArrayList<>(imports);
+		all.addAll(other.imports);
+		return new MergedImport(sheetURL, bound.union(other.bound), all, cells + other.cells);
+	}
+
+	private static CellRange parse(String range) {
+		try {
+			var bound = new CellRange(range);
+			return bound.topRow < 0 || bound.topCol < 0 || bound.isEmpty() ? null : bound;
+		} catch (NumberFormatException x) {
+			return null;
+		}
+	}
+}
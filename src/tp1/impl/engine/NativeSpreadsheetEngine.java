@@ -0,0 +1,888 @@
+package tp1.impl.engine;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.CellType;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.service.util.Result;
+import tp1.util.CellRange;
+import tp1.util.CellValues;
+
+/**
+ *
+ * SpreadsheetEngine that parses and evaluates formulas itself, reading the raw values straight from the
+ * AbstractSpreadsheet instead of copying them into a GemBox workbook.
+ *
+ * The engine keeps the computed values of each sheet together with a dependency graph (cell -> formula cells
+ * that reference it). The cells written since the version of the sheet last computed (see
+ * AbstractSpreadsheet.forEachChange()), the cells reported through invalidateCell() and the results of
+ * "=importrange(...)" cells, which may change remotely at any time, are reloaded on the next computation, and only
+ * the formula cells that transitively depend on a changed value are evaluated again. The values computed are handed
+ * out as immutable snapshots, which later computations do not write. All imports of a sheet are fetched
+ * concurrently, through the ImportFetcher, without holding the values of the sheet, so that sheets importing each
+ * other can be computed at the same time.
+ *
+ * Formula cells are evaluated after the cells they reference, so each cell is computed at most once per
+ * computation; cells that take part in a reference cycle evaluate to an error. Sheets without formulas are not
+ * evaluated at all: their values are the literals of their cells.
+ *
+ * When at least sheets.engine.parallelThreshold formula cells need to be evaluated, they are split into levels
+ * (each cell one level above the deepest pending cell it references) and the cells of each level, which do not
+ * depend on each other, are evaluated on a shared ForkJoinPool of sheets.engine.parallelism threads.
+ *
+ * The evaluations of the sheets computed last are kept, as long as they hold at most sheets.engine.cache.cells
+ * cells in all; the least recently used are dropped first, and loaded again from scratch if needed.
+ *
+ * SUM, AVERAGE, COUNT, MIN and MAX over long ranges are answered by per column segment trees over the values,
+ * built the first time a column is aggregated and updated whenever one of its cells changes, so they take
+ * O(log n) per column of the range instead of visiting every cell.
+ *
+ */
+public class NativeSpreadsheetEngine implements SpreadsheetEngine {
+
+	public static final String PARALLEL_THRESHOLD_PROPERTY = "sheets.engine.parallelThreshold";
+	public static final String PARALLELISM_PROPERTY = "sheets.engine.parallelism";
+	public static final String CACHE_CELLS_PROPERTY = "sheets.engine.cache.cells";
+
+	private static final int DEFAULT_PARALLEL_THRESHOLD = 2048;
+	private static final long DEFAULT_CACHE_CELLS = 4_000_000;
+
+	// cells of a level evaluated by a single task
+	private static final int GRAIN = 64;
+
+	// shorter ranges are visited cell by cell
+	private static final int AGGREGATE_MIN_ROWS = 32;
+
+	private static final String ERROR = "#ERROR?";
+
+	private static final int PARALLEL_THRESHOLD = Integer.getInteger(PARALLEL_THRESHOLD_PROPERTY, DEFAULT_PARALLEL_THRESHOLD);
+
+	private static final ForkJoinPool pool = new ForkJoinPool(Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors()));
+
+	private final Cache<String, Evaluation> sheets;
+
+	private NativeSpreadsheetEngine() {
+		this.sheets = CacheBuilder.newBuilder()
+				.maximumWeight(Long.getLong(CACHE_CELLS_PROPERTY, DEFAULT_CACHE_CELLS))
+				.weigher((String sheetId, Evaluation evaluation) -> 1 + evaluation.weighed)
+				.build();
+	}
+
+	static public SpreadsheetEngine getInstance() {
+		return new NativeSpreadsheetEngine();
+	}
+
+	@Override
+	public Result<CellValues> computeValues(Map<String,Long> versions, AbstractSpreadsheet sheet) {
+		return computeValues(versions, sheet, null);
+	}
+
+	@Override
+	public Result<CellValues> computeValues(Map<String,Long> versions, AbstractSpreadsheet sheet, CellRange range) {
+		if (!sheet.hasFormulas()) {
+			if (sheet.sheetId() != null)
+				sheets.invalidate(sheet.sheetId());
+
+			return Result.ok(range == null ? SpreadsheetEngine.literalValues(sheet) : SpreadsheetEngine.literalValues(sheet, range));
+		}
+
+		Evaluation evaluation = sheet.sheetId() == null ? new Evaluation(sheet.rows(), sheet.columns()) :
+				sheets.asMap().compute(sheet.sheetId(), (id, e) -> e != null && e.fits(sheet) ? e : new Evaluation(sheet.rows(), sheet.columns()));
+
+		// the imports are fetched without holding the evaluation, which other requests (and the remote sheets
+		// importing this one) may need meanwhile; another version of the sheet may be loaded while they are
+		// fetched, so the sheet is brought up to date again before the fetched values are used
+		Map<List<String>, Result<CellValues>> fetched = new HashMap<>();
+		for (;;) {
+			Set<List<String>> missing = new LinkedHashSet<>();
+			Map<String,String> serverVersions = new HashMap<>();
+			CellValues values = null;
+			int size;
+			synchronized (evaluation) {
+				evaluation.load(sheet);
+
+				List<Long> importCells = evaluation.importsNeededBy(range);
+				for (long cell : importCells) {
+					var imported = List.of(evaluation.imports.get(cell));
+					if (!fetched.containsKey(imported))
+						missing.add(imported);
+				}
+
+				if (missing.isEmpty()) {
+					for (long cell : importCells) {
+						var imported = fetched.get(List.of(evaluation.imports.get(cell)));
+						serverVersions.putAll(imported.getOthers());
+						evaluation.setImportedValue(cell, imported);
+					}
+					evaluation.evaluate(range);
+
+					values = evaluation.snapshot();
+				}
+				size = evaluation.size();
+			}
+
+			// the snapshot is no longer written, so the window is sliced without holding the evaluation
+			if (values != null) {
+				weigh(sheet.sheetId(), evaluation, size);
+				var result = Result.ok(range == null ? values : values.slice(range));
+				result.setOthers(serverVersions);
+				return result;
+			}
+
+			List<String[]> ranges = new ArrayList<>(missing.size());
+			for (var imported : missing)
+				ranges.add(imported.toArray(new String[0]));
+
+			var results = ImportFetcher.fetch(versions, sheet, ranges);
+			for (int i = 0; i < ranges.size(); i++)
+				fetched.put(List.of(ranges.get(i)), results.get(i));
+		}
+	}
+
+	/**
+	 * Weighs the evaluation of a sheet again once the number of cells it holds changed, as the cache only weighs
+	 * its entries when they are put.
+	 */
+	private void weigh(String sheetId, Evaluation evaluation, int size) {
+		if (sheetId != null && evaluation.weighed != size) {
+			evaluation.weighed = size;
+			sheets.asMap().replace(sheetId, evaluation, evaluation);
+		}
+	}
+
+	@Override
+	public void invalidateCell(String sheetId, int row, int col) {
+		Evaluation evaluation = sheets.getIfPresent(sheetId);
+		if (evaluation != null)
+			evaluation.invalidate(row, col);
+	}
+
+	@Override
+	public void invalidateSheet(String sheetId) {
+		sheets.invalidate(sheetId);
+	}
+
+	/**
+	 * The values of the cells of one spreadsheet and the dependencies among them. Only the cells that hold a value
+	 * or a formula, and the cells referenced by formulas, take up space: the state of each cell is kept in maps keyed
+	 * by its packed row and column (see cell()), so computing a window of a large sheet only materializes the cells
+	 * of the window and of the cells it depends on.
+	 */
+	static class Evaluation implements Formula.Context {
+
+		private static final Object ERROR_VALUE = new Object();
+
+		private static final byte PENDING = 0, VISITING = 1, DONE = 2;
+
+		final int rows, cols;
+
+		// the cells loaded from the sheet: those holding a value or a formula
+		final Map<Long, Node> nodes;
+
+		// cell -> formula cells referencing it directly, and per column the ranges referenced by formula cells
+		final Map<Long, Set<Long>> cellDependents;
+		final List<RangeDependent>[] rangeDependents;
+
+		// "=importrange(...)" cells -> {sheetURL, range}
+		final Map<Long, String[]> imports;
+
+		// cells whose raw value changed since the last computation
+		final Queue<Long> staleCells;
+
+		// the version of the sheet last loaded, see AbstractSpreadsheet.version()
+		Object version;
+
+		// per column, the rows holding a formula; null for the columns without any
+		final BitSet[] formulaRows;
+
+		// segment trees of the columns aggregated so far, shared with the evaluation tasks
+		final AtomicReferenceArray<ColumnTree> trees;
+
+		// the computed values; once handed out by snapshot() they are no longer written, and the next
+		// changes go to a copy, which shares the rows that do not change
+		CellValues computed;
+		boolean published;
+
+		final Set<Long> changed;
+		final List<Long> dirty;
+		boolean loaded;
+
+		// the sheet last loaded, which tells the populated cells of the ranges visited
+		AbstractSpreadsheet sheet;
+
+		// the number of nodes the cache last weighed the evaluation by
+		volatile int weighed;
+
+		@SuppressWarnings("unchecked")
+		Evaluation(int rows, int cols) {
+			this.rows = rows;
+			this.cols = cols;
+			this.nodes = new HashMap<>();
+			this.cellDependents = new HashMap<>();
+			this.rangeDependents = new List[cols];
+			this.imports = new HashMap<>();
+			this.staleCells = new ConcurrentLinkedQueue<>();
+			this.formulaRows = new BitSet[cols];
+			this.trees = new AtomicReferenceArray<>(cols);
+			this.computed = new CellValues(rows, cols);
+			this.changed = new HashSet<>();
+			this.dirty = new ArrayList<>();
+			this.loaded = false;
+		}
+
+		/**
+		 * Packs the coordinates of a cell into the key of the maps of the evaluation.
+		 */
+		static long cell(int row, int col) {
+			return (long) row << 32 | col;
+		}
+
+		static int row(long cell) {
+			return (int) (cell >>> 32);
+		}
+
+		static int col(long cell) {
+			return (int) cell;
+		}
+
+		boolean fits(AbstractSpreadsheet sheet) {
+			return rows == sheet.rows() && cols == sheet.columns();
+		}
+
+		/**
+		 * @return the number of cells the evaluation holds.
+		 */
+		int size() {
+			return nodes.size();
+		}
+
+		void invalidate(int row, int col) {
+			if (row >= 0 && row < rows && col >= 0 && col < cols)
+				staleCells.add(cell(row, col));
+		}
+
+		/**
+		 * Brings the values up to date with the raw values of the sheet. Only the cells reported through
+		 * invalidate(), or that differ from the version of the sheet last loaded, are read again, unless the
+		 * sheet cannot tell which cells differ. The formula cells that depend on changed cells are left pending,
+		 * for evaluate().
+		 */
+		void load(AbstractSpreadsheet sheet) {
+			Object version = sheet.version();
+			Set<Long> stale = new LinkedHashSet<>();
+			for (Long cell; (cell = staleCells.poll()) != null; )
+				stale.add(cell);
+
+			// versions of the sheet may be computed out of order, so the invalidated cells alone do not
+			// tell which cells differ from the version last loaded
+			if (loaded && version != null && version != this.version && !sheet.forEachChange(this.version, (row, col) -> stale.add(cell(row, col))))
+				reset();
+
+			if (!loaded) {
+				sheet.forEachCell((row, col) -> load(sheet, cell(row, col)));
+				loaded = true;
+			} else
+				for (long cell : stale)
+					reload(sheet, cell);
+
+			this.version = version;
+			this.sheet = sheet;
+		}
+
+		/**
+		 * Drops everything loaded, for the sheet to be loaded again from scratch.
+		 */
+		private void reset() {
+			nodes.clear();
+			cellDependents.clear();
+			Arrays.fill(rangeDependents, null);
+			imports.clear();
+			Arrays.fill(formulaRows, null);
+			for (int col = 0; col < cols; col++)
+				trees.set(col, null);
+			computed = new CellValues(rows, cols);
+			published = false;
+			changed.clear();
+			dirty.clear();
+			loaded = false;
+		}
+
+		/**
+		 * @return the computed values, which are not written anymore and can be read without holding the evaluation.
+		 */
+		CellValues snapshot() {
+			published = true;
+			return computed;
+		}
+
+		/**
+		 * Evaluates the pending formula cells. If a range is given, only the cells in the range and the cells
+		 * they depend on are evaluated; the other formula cells are left pending for a later computation.
+		 */
+		void evaluate(CellRange range) {
+			if (range == null) {
+				evaluatePending();
+				dirty.clear();
+			} else {
+				sheet.forEachCell(range, (row, col) -> {
+					Node node = nodes.get(cell(row, col));
+					if (node != null && node.state == PENDING && node.formula != null)
+						evaluateFrom(cell(row, col));
+				});
+				dirty.removeIf(cell -> {
+					Node node = nodes.get(cell);
+					return node == null || node.state != PENDING;
+				});
+			}
+
+			if (published && !changed.isEmpty()) {
+				computed = computed.copy();
+				published = false;
+			}
+			for (long cell : changed) {
+				Node node = nodes.get(cell);
+				Object value = node == null ? Values.EMPTY : node.value;
+				computed.set(row(cell), col(cell), value == ERROR_VALUE ? null : value);
+			}
+			changed.clear();
+		}
+
+		/**
+		 * The import cells in the range or referenced, directly or through other formula cells, by the cells in the range;
+		 * all the import cells if no range is given.
+		 */
+		List<Long> importsNeededBy(CellRange range) {
+			if (range == null)
+				return new ArrayList<>(imports.keySet());
+
+			List<Long> needed = new ArrayList<>();
+			Set<Long> seen = new HashSet<>();
+			Deque<Long> queue = new ArrayDeque<>();
+
+			sheet.forEachCell(range, (row, col) -> {
+				seen.add(cell(row, col));
+				queue.add(cell(row, col));
+			});
+
+			Formula.ReferenceVisitor visitor = new Formula.ReferenceVisitor() {
+				@Override
+				public void cell(int row, int col) {
+					if (row >= 0 && row < rows && col >= 0 && col < cols && seen.add(Evaluation.cell(row, col)))
+						queue.add(Evaluation.cell(row, col));
+				}
+
+				@Override
+				public void range(int topRow, int topCol, int botRow, int botCol) {
+					sheet.forEachCell(new CellRange(topRow, topCol, botRow, botCol), this::cell);
+				}
+			};
+
+			while (!queue.isEmpty()) {
+				long cell = queue.poll();
+				Node node = nodes.get(cell);
+				if (imports.containsKey(cell))
+					needed.add(cell);
+				else if (node != null && node.formula != null)
+					node.formula.forEachReference(visitor);
+			}
+			return needed;
+		}
+
+		private void load(AbstractSpreadsheet sheet, long cell) {
+			int row = row(cell), col = col(cell);
+			switch (sheet.cellType(row, col)) {
+				case FORMULA -> {
+					Node node = node(cell);
+					try {
+						node.formula = FormulaParser.compile(sheet.cellRawValue(row, col));
+						formulaRows(col).set(row);
+						node.state = PENDING;
+						register(cell, node.formula);
+						dirty.add(cell);
+					} catch (FormulaException x) {
+						node.value = ERROR_VALUE;
+					}
+				}
+				case IMPORTRANGE -> {
+					Node node = node(cell);
+					var matcher = CellType.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(row, col));
+					if (matcher.matches() && FormulaParser.isRange(matcher.group(2)))
+						imports.put(cell, new String[] { matcher.group(1), matcher.group(2) });
+					else
+						node.value = ERROR_VALUE;
+				}
+				case EMPTY -> {
+				}
+				default -> node(cell).value = sheet.cellLiteral(row, col);
+			}
+			changed.add(cell);
+			updated(cell);
+		}
+
+		private Node node(long cell) {
+			return nodes.computeIfAbsent(cell, k -> new Node());
+		}
+
+		private BitSet formulaRows(int col) {
+			if (formulaRows[col] == null)
+				formulaRows[col] = new BitSet();
+			return formulaRows[col];
+		}
+
+		private void reload(AbstractSpreadsheet sheet, long cell) {
+			unload(cell);
+			load(sheet, cell);
+			markDirty(cell);
+		}
+
+		private void unload(long cell) {
+			Node node = nodes.remove(cell);
+			if (node != null && node.formula != null) {
+				unregister(cell, node.formula);
+				formulaRows[col(cell)].clear(row(cell));
+			}
+			imports.remove(cell);
+		}
+
+		/**
+		 * Only the top-left value of an imported range lands in the sheet: the cells the range would
+		 * spill into keep their own raw values, as in the GemBox engine.
+		 * The formula cells that depend on the cell are marked for evaluation if its value changed.
+		 */
+		void setImportedValue(long cell, Result<CellValues> imported) {
+			Object value;
+			if (!imported.isOK())
+				value = ERROR;
+			else if (imported.value().rows() == 0 || imported.value().cols() == 0 || imported.value().get(0, 0) == null)
+				value = ERROR_VALUE;
+			else
+				value = imported.value().get(0, 0);
+
+			Node node = node(cell);
+			if (Objects.equals(value, node.value))
+				return;
+
+			node.value = value;
+			changed.add(cell);
+			updated(cell);
+			markDirty(cell);
+		}
+
+		/**
+		 * Marks the formula cells that transitively depend on the given cell (and the cell itself) for evaluation.
+		 */
+		private void markDirty(long origin) {
+			Deque<Long> queue = new ArrayDeque<>();
+			queue.add(origin);
+			Node node = nodes.get(origin);
+			if (node != null && node.formula != null && node.state != PENDING) {
+				node.state = PENDING;
+				dirty.add(origin);
+				updated(origin);
+			}
+			while (!queue.isEmpty())
+				forEachDependent(queue.poll(), dep -> {
+					Node dependent = nodes.get(dep);
+					if (dependent.state != PENDING) {
+						dependent.state = PENDING;
+						dirty.add(dep);
+						updated(dep);
+						queue.add(dep);
+					}
+				});
+		}
+
+		private void forEachDependent(long cell, LongConsumer consumer) {
+			var direct = cellDependents.get(cell);
+			if (direct != null)
+				direct.forEach(consumer::accept);
+
+			int row = row(cell);
+			var ranges = rangeDependents[col(cell)];
+			if (ranges != null)
+				for (var range : ranges)
+					if (range.topRow <= row && row <= range.botRow)
+						consumer.accept(range.cell);
+		}
+
+		private void register(long cell, Formula formula) {
+			formula.forEachReference(new Formula.ReferenceVisitor() {
+				@Override
+				public void cell(int row, int col) {
+					if (row >= 0 && row < rows && col >= 0 && col < cols)
+						cellDependents.computeIfAbsent(Evaluation.cell(row, col), k -> new HashSet<>()).add(cell);
+				}
+
+				@Override
+				public void range(int topRow, int topCol, int botRow, int botCol) {
+					var dep = new RangeDependent(topRow, botRow, cell);
+					for (int col = Math.max(topCol, 0); col <= Math.min(botCol, cols - 1); col++) {
+						if (rangeDependents[col] == null)
+							rangeDependents[col] = new ArrayList<>();
+						rangeDependents[col].add(dep);
+					}
+				}
+			});
+		}
+
+		private void unregister(long cell, Formula formula) {
+			formula.forEachReference(new Formula.ReferenceVisitor() {
+				@Override
+				public void cell(int row, int col) {
+					var direct = cellDependents.get(Evaluation.cell(row, col));
+					if (direct != null && direct.remove(cell) && direct.isEmpty())
+						cellDependents.remove(Evaluation.cell(row, col));
+				}
+
+				@Override
+				public void range(int topRow, int topCol, int botRow, int botCol) {
+					for (int col = Math.max(topCol, 0); col <= Math.min(botCol, cols - 1); col++)
+						if (rangeDependents[col] != null)
+							rangeDependents[col].removeIf(dep -> dep.cell == cell);
+				}
+			});
+		}
+
+		@Override
+		public int rows() {
+			return rows;
+		}
+
+		@Override
+		public int cols() {
+			return cols;
+		}
+
+		@Override
+		public Object cellValue(int row, int col) {
+			if (row < 0 || row >= rows || col < 0 || col >= cols)
+				return Values.EMPTY;
+
+			Node node = nodes.get(cell(row, col));
+			if (node == null)
+				return Values.EMPTY;
+			if (node.formula != null && node.state != DONE)
+				throw new FormulaException("#REF!");
+
+			Object value = node.value;
+			if (value == ERROR_VALUE)
+				throw new FormulaException(ERROR);
+			return value == null ? Values.EMPTY : value;
+		}
+
+		/**
+		 * Only the populated cells of the range are visited: the others are empty.
+		 */
+		@Override
+		public void forEachValue(int topRow, int topCol, int botRow, int botCol, Consumer<Object> consumer) {
+			sheet.forEachCell(new CellRange(topRow, topCol, botRow, botCol), (row, col) -> consumer.accept(cellValue(row, col)));
+		}
+
+		/**
+		 * Evaluates all the pending cells, level by level on the pool if there are enough of them.
+		 */
+		private void evaluatePending() {
+			Set<Long> seen = new HashSet<>();
+			LongStream.Builder builder = LongStream.builder();
+			for (long cell : dirty) {
+				Node node = nodes.get(cell);
+				if (node != null && node.state == PENDING && node.formula != null && seen.add(cell))
+					builder.add(cell);
+			}
+			long[] pending = builder.build().toArray();
+
+			if (pending.length < PARALLEL_THRESHOLD) {
+				for (long cell : pending)
+					if (nodes.get(cell).state == PENDING)
+						evaluateFrom(cell);
+				return;
+			}
+
+			// position + 1 of each pending cell in pending[]
+			int n = pending.length;
+			Map<Long, Integer> position = new HashMap<>(2 * n);
+			for (int i = 0; i < n; i++)
+				position.put(pending[i], i + 1);
+
+			// number of pending cells each pending cell references, and the reverse edges, as adjacency arrays
+			int[][] deps = new int[n][];
+			int[] indegree = new int[n], start = new int[n + 1];
+			for (int i = 0; i < n; i++) {
+				deps[i] = dependencies(pending[i]).mapToInt(dep -> position.getOrDefault(dep, 0)).filter(p -> p > 0).toArray();
+				for (int dep : deps[i]) {
+					indegree[i]++;
+					start[dep]++;
+				}
+			}
+			for (int i = 0; i < n; i++)
+				start[i + 1] += start[i];
+			int[] dependents = new int[start[n]], next = Arrays.copyOf(start, n);
+			for (int i = 0; i < n; i++)
+				for (int dep : deps[i])
+					dependents[next[dep - 1]++] = i;
+
+			// breadth-first over the levels: the queue holds each level after the previous one
+			long[] queue = new long[n];
+			int head = 0, tail = 0;
+			for (int i = 0; i < n; i++)
+				if (indegree[i] == 0)
+					queue[tail++] = pending[i];
+
+			while (head < tail) {
+				int end = tail;
+				if (end - head <= GRAIN)
+					new LevelTask(queue, head, end).compute();
+				else
+					pool.invoke(new LevelTask(queue, head, end));
+
+				for (; head < end; head++) {
+					int i = position.get(queue[head]) - 1;
+					changed.add(pending[i]);
+					updated(pending[i]);
+					for (int e = start[i]; e < start[i + 1]; e++)
+						if (--indegree[dependents[e]] == 0)
+							queue[tail++] = pending[dependents[e]];
+				}
+			}
+
+			// cells left are in a reference cycle or depend on one
+			for (long cell : pending)
+				if (nodes.get(cell).state == PENDING)
+					evaluateFrom(cell);
+		}
+
+		/**
+		 * Evaluates a slice of a level, whose cells only reference cells already done.
+		 */
+		private class LevelTask extends RecursiveAction {
+			final long[] cells;
+			final int from, to;
+
+			LevelTask(long[] cells, int from, int to) {
+				this.cells = cells;
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute() {
+				if (to - from <= GRAIN) {
+					for (int i = from; i < to; i++) {
+						Node node = nodes.get(cells[i]);
+						node.value = evaluate(node);
+						node.state = DONE;
+					}
+				} else {
+					int mid = (from + to) >>> 1;
+					invokeAll(new LevelTask(cells, from, mid), new LevelTask(cells, mid, to));
+				}
+			}
+		}
+
+		/**
+		 * Answers from the segment trees of the columns, unless the range is short or holds a cell that is an error
+		 * or not computed yet, which visiting the cells reports.
+		 */
+		@Override
+		public Formula.Aggregate aggregate(int topRow, int topCol, int botRow, int botCol) {
+			topRow = Math.max(topRow, 0);
+			botRow = Math.min(botRow, rows - 1);
+			if (botRow - topRow + 1 < AGGREGATE_MIN_ROWS)
+				return null;
+
+			var aggregate = new Formula.Aggregate();
+			for (int col = Math.max(topCol, 0); col <= Math.min(botCol, cols - 1); col++) {
+				var column = tree(col).query(topRow, botRow + 1);
+				if (column == null)
+					return null;
+				aggregate.add(column);
+			}
+			return aggregate;
+		}
+
+		private ColumnTree tree(int col) {
+			var tree = trees.get(col);
+			if (tree == null) {
+				var built = new ColumnTree(rows);
+				sheet.forEachCell(new CellRange(0, col, rows - 1, col), (row, c) -> built.set(row, nodes.get(cell(row, col))));
+				tree = trees.compareAndSet(col, null, built) ? built : trees.get(col);
+			}
+			return tree;
+		}
+
+		/**
+		 * Brings the segment tree of the column of a cell up to date, after its value or state changed.
+		 */
+		private void updated(long cell) {
+			var tree = trees.get(col(cell));
+			if (tree != null)
+				tree.set(row(cell), nodes.get(cell));
+		}
+
+		/**
+		 * Depth-first walk over the pending formula cells the root depends on, evaluating each one once all of its
+		 * own dependencies are done. A dependency found VISITING closes a cycle and is read as an error.
+		 */
+		private void evaluateFrom(long root) {
+			Deque<Frame> stack = new ArrayDeque<>();
+			nodes.get(root).state = VISITING;
+			stack.push(new Frame(root, dependencies(root).toArray()));
+
+			while (!stack.isEmpty()) {
+				Frame top = stack.peek();
+				if (top.next < top.deps.length) {
+					long dep = top.deps[top.next++];
+					Node node = nodes.get(dep);
+					if (node.state == PENDING) {
+						node.state = VISITING;
+						stack.push(new Frame(dep, dependencies(dep).toArray()));
+					}
+				} else {
+					stack.pop();
+					Node node = nodes.get(top.cell);
+					node.value = evaluate(node);
+					node.state = DONE;
+					changed.add(top.cell);
+					updated(top.cell);
+				}
+			}
+		}
+
+		private Object evaluate(Node node) {
+			try {
+				return node.formula.evaluate(this);
+			} catch (RuntimeException x) {
+				return ERROR_VALUE;
+			}
+		}
+
+		/**
+		 * The formula cells referenced by the formula of the given cell.
+		 */
+		private LongStream dependencies(long cell) {
+			LongStream.Builder deps = LongStream.builder();
+			nodes.get(cell).formula.forEachReference(new Formula.ReferenceVisitor() {
+				@Override
+				public void cell(int row, int col) {
+					if (row >= 0 && row < rows && col >= 0 && col < cols && formulaRows[col] != null && formulaRows[col].get(row))
+						deps.add(Evaluation.cell(row, col));
+				}
+
+				@Override
+				public void range(int topRow, int topCol, int botRow, int botCol) {
+					for (int col = Math.max(topCol, 0); col <= Math.min(botCol, cols - 1); col++)
+						if (formulaRows[col] != null)
+							for (int row = formulaRows[col].nextSetBit(Math.max(topRow, 0)); row >= 0 && row <= botRow; row = formulaRows[col].nextSetBit(row + 1))
+								deps.add(Evaluation.cell(row, col));
+				}
+			});
+			return deps.build();
+		}
+
+		/**
+		 * The state of a cell: its formula, if any, its value, and whether the formula was evaluated.
+		 */
+		private static class Node {
+			Formula formula;
+			Object value;
+			byte state;
+		}
+
+		/**
+		 * Segment tree over the rows of a column, holding the count, sum, minimum and maximum of the numbers
+		 * and the count of blocked cells (errors and formula cells not done) of each node.
+		 */
+		private static class ColumnTree {
+			final int size;
+			final int[] count, blocked;
+			final double[] sum, min, max;
+
+			ColumnTree(int size) {
+				this.size = size;
+				this.count = new int[2 * size];
+				this.blocked = new int[2 * size];
+				this.sum = new double[2 * size];
+				this.min = new double[2 * size];
+				this.max = new double[2 * size];
+				Arrays.fill(min, Double.POSITIVE_INFINITY);
+				Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			}
+
+			/**
+			 * Sets the row to the value and state of a cell; a null node is an empty cell.
+			 */
+			void set(int row, Node node) {
+				Object value = node == null ? null : node.value;
+				int i = row + size;
+				boolean number = value instanceof Double;
+				count[i] = number ? 1 : 0;
+				sum[i] = number ? (Double) value : 0;
+				min[i] = number ? (Double) value : Double.POSITIVE_INFINITY;
+				max[i] = number ? (Double) value : Double.NEGATIVE_INFINITY;
+				blocked[i] = node != null && (value == ERROR_VALUE || node.formula != null && node.state != DONE) ? 1 : 0;
+
+				for (i >>= 1; i >= 1; i >>= 1) {
+					count[i] = count[2 * i] + count[2 * i + 1];
+					blocked[i] = blocked[2 * i] + blocked[2 * i + 1];
+					sum[i] = sum[2 * i] + sum[2 * i + 1];
+					min[i] = Math.min(min[2 * i], min[2 * i + 1]);
+					max[i] = Math.max(max[2 * i], max[2 * i + 1]);
+				}
+			}
+
+			/**
+			 * Aggregates the rows from (inclusive) to (exclusive), or returns null if any of them is blocked.
+			 */
+			Formula.Aggregate query(int from, int to) {
+				int n = 0, b = 0;
+				double s = 0, lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+				for (from += size, to += size; from < to; from >>= 1, to >>= 1) {
+					if ((from & 1) == 1) {
+						n += count[from]; b += blocked[from]; s += sum[from];
+						lo = Math.min(lo, min[from]); hi = Math.max(hi, max[from]);
+						from++;
+					}
+					if ((to & 1) == 1) {
+						to--;
+						n += count[to]; b += blocked[to]; s += sum[to];
+						lo = Math.min(lo, min[to]); hi = Math.max(hi, max[to]);
+					}
+				}
+				return b > 0 ? null : new Formula.Aggregate(n, s, lo, hi);
+			}
+		}
+
+		private static class RangeDependent {
+			final int topRow, botRow;
+			final long cell;
+
+			RangeDependent(int topRow, int botRow, long cell) {
+				this.topRow = topRow;
+				this.botRow = botRow;
+				this.cell = cell;
+			}
+		}
+
+		private static class Frame {
+			final long cell;
+			final long[] deps;
+			int next;
+
+			Frame(long cell, long[] deps) {
+				this.cell = cell;
+				this.deps = deps;
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package tp1.impl.engine;
+
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.impl.SpreadsheetEngineImpl;
+
+/**
+ *
+ * Picks the SpreadsheetEngine used by the servers. The native engine is the default; the GemBox engine
+ * remains available as a fallback by starting the server with -Dsheets.engine=gembox.
+ *
+ */
+public class SpreadsheetEngines {
+
+	public static final String ENGINE_PROPERTY = "sheets.engine";
+	public static final String GEMBOX_ENGINE = "gembox";
+
+	private SpreadsheetEngines() {
+	}
+
+	static public SpreadsheetEngine getInstance() {
+		if (GEMBOX_ENGINE.equalsIgnoreCase(System.getProperty(ENGINE_PROPERTY)))
+			return SpreadsheetEngineImpl.getInstance();
+		else
+			return NativeSpreadsheetEngine.getInstance();
+	}
+}
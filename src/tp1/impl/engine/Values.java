@@ -0,0 +1,104 @@
+package tp1.impl.engine;
+
+/**
+ * Coercion and comparison rules shared by the formula operators and functions.
+ * Values are Doubles, Booleans or Strings; the empty string stands for an empty cell.
+ */
+final class Values {
+
+	static final String EMPTY = "";
+
+	private Values() {
+	}
+
+	static double toNumber(Object value) {
+		if (value instanceof Double)
+			return (Double) value;
+		if (value instanceof Boolean)
+			return (Boolean) value ? 1 : 0;
+
+		String text = value.toString().trim();
+		if (text.isEmpty())
+			return 0;
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException x) {
+			throw new FormulaException("#VALUE!");
+		}
+	}
+
+	static boolean toBoolean(Object value) {
+		if (value instanceof Boolean)
+			return (Boolean) value;
+		if (value instanceof Double)
+			return (Double) value != 0;
+
+		String text = value.toString();
+		if (text.isEmpty() || text.equalsIgnoreCase("false"))
+			return false;
+		if (text.equalsIgnoreCase("true"))
+			return true;
+		throw new FormulaException("#VALUE!");
+	}
+
+	static String toText(Object value) {
+		if (value instanceof Double) {
+			double d = (Double) value;
+			if (d == Math.rint(d) && Math.abs(d) < 1e15)
+				return Long.toString((long) d);
+			return Double.toString(d);
+		}
+		if (value instanceof Boolean)
+			return (Boolean) value ? "TRUE" : "FALSE";
+		return value.toString();
+	}
+
+	/**
+	 * Orders values as spreadsheets do: numbers before text before booleans, text compared
+	 * case-insensitively; an empty cell compares as the zero value of the other operand's type.
+	 */
+	static int compare(Object l, Object r) {
+		if (EMPTY.equals(l))
+			l = emptyAs(r);
+		if (EMPTY.equals(r))
+			r = emptyAs(l);
+
+		int rl = rank(l), rr = rank(r);
+		if (rl != rr)
+			return Integer.compare(rl, rr);
+
+		if (l instanceof Double)
+			return Double.compare((Double) l, (Double) r);
+		if (l instanceof Boolean)
+			return Boolean.compare((Boolean) l, (Boolean) r);
+		return l.toString().compareToIgnoreCase(r.toString());
+	}
+
+	static double divide(double l, double r) {
+		if (r == 0)
+			throw new FormulaException("#DIV/0!");
+		return l / r;
+	}
+
+	static Double checked(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			throw new FormulaException("#NUM!");
+		return value;
+	}
+
+	private static Object emptyAs(Object other) {
+		if (other instanceof Double)
+			return 0.0;
+		if (other instanceof Boolean)
+			return Boolean.FALSE;
+		return EMPTY;
+	}
+
+	private static int rank(Object value) {
+		if (value instanceof Double)
+			return 0;
+		if (value instanceof Boolean)
+			return 2;
+		return 1;
+	}
+}
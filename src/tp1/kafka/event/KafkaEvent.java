@@ -8,7 +8,8 @@ public class KafkaEvent {
         DeleteUserSpreadsheetsEvent,
         ShareSpreadsheetEvent,
         UnshareSpreadsheetEvent,
-        UpdateCellEvent
+        UpdateCellEvent,
+        UpdateCellsEvent
     }
 
     private String domainId, publisherURI;
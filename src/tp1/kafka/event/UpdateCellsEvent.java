@@ -0,0 +1,48 @@
+package tp1.kafka.event;
+
+import java.util.Map;
+
+public class UpdateCellsEvent {
+
+    private String sheetId, userId, password;
+    private Map<String, String> rawValues;
+
+    public UpdateCellsEvent(String sheetId, Map<String, String> rawValues, String userId, String password) {
+        this.sheetId = sheetId;
+        this.rawValues = rawValues;
+        this.userId = userId;
+        this.password = password;
+    }
+
+    public String getSheetId() {
+        return sheetId;
+    }
+
+    public void setSheetId(String sheetId) {
+        this.sheetId = sheetId;
+    }
+
+    public Map<String, String> getRawValues() {
+        return rawValues;
+    }
+
+    public void setRawValues(Map<String, String> rawValues) {
+        this.rawValues = rawValues;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+}
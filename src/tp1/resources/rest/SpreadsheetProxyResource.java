@@ -11,12 +11,19 @@ import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.api.service.util.Result;
 import tp1.clients.sheet.SpreadsheetRepositoryClient;
+import tp1.clients.user.UsersCachingClient;
 import tp1.discovery.Discovery;
-import tp1.impl.SpreadsheetEngineImpl;
+import tp1.impl.SpreadsheetsImpl;
+import tp1.impl.engine.SpreadsheetEngines;
 import tp1.kafka.sync.SyncPoint;
 import tp1.util.Cell;
 import tp1.util.CellRange;
+import tp1.util.CellValues;
+import tp1.util.Deadline;
+import tp1.util.ETags;
+import tp1.util.ImportPath;
 import tp1.util.InvalidCellIdException;
+import tp1.util.ServerSecret;
 
 import java.util.*;
 import java.util.logging.Logger;
@@ -38,7 +45,7 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
     public SpreadsheetProxyResource(String domainId, SpreadsheetRepositoryClient repositoryClient) {
         this.domainId = domainId;
         this.repositoryClient = repositoryClient;
-        this.engine = SpreadsheetEngineImpl.getInstance();
+        this.engine = SpreadsheetEngines.getInstance();
     }
 
     @Override
@@ -99,6 +106,8 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
             Result<Void> deleteResult = repositoryClient.delete(path);
             if(!deleteResult.isOK())
                 throw new WebApplicationException(mapError(deleteResult.error()));
+
+            engine.invalidateSheet(sheetId);
         }
     }
 
@@ -156,13 +165,19 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
                         e -> Long.parseLong(e.getValue().get(0))
                 ));
 
-        Result<String[][]> values = engine.computeSpreadsheetValues(versions, sheet.value());
+        ImportPath importPath = ImportPath.fromHeaders(headers.getHeaderString(ImportPath.PATH_HEADER), headers.getHeaderString(ImportPath.HOPS_HEADER));
+        Deadline deadline = Deadline.fromHeader(headers.getHeaderString(Deadline.HEADER));
+        Result<String[][]> values = Deadline.with(deadline, () -> ImportPath.with(importPath, () -> engine.computeSpreadsheetValues(versions, sheet.value(), new CellRange(range))));
         if(!values.isOK())
             throw new WebApplicationException(mapError(values.error()));
         else {
-            Result<String[][]> result = Result.ok(new CellRange(range).extractRangeValuesFrom(values.value()));
+            Result<String[][]> result = Result.ok(values.value());
+
+            String etag = ETags.of(result.value());
 
-            Response.ResponseBuilder builder = Response.status(200).entity(result.value());
+            Response.ResponseBuilder builder = ETags.matches(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), etag) ?
+                    Response.status(Response.Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
+            builder.header(HttpHeaders.ETAG, etag);
 
             for (Map.Entry<String,String> entry : values.getOthers().entrySet()) {
                 builder.header(entry.getKey(), entry.getValue());
@@ -173,9 +188,15 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
     }
 
     @Override
-    public String[][] getSpreadsheetValues(HttpHeaders headers, String sheetId, String userId, String password) {
+    public String[][] getSpreadsheetValues(HttpHeaders headers, String sheetId, String userId, String password,
+                                           String range, Integer rowOffset, Integer rowLimit) {
+
+        Result<CellRange> window = SpreadsheetsImpl.window(range, rowOffset, rowLimit);
+        if(!window.isOK())
+            throw new WebApplicationException(mapError(window.error()));
 
         Spreadsheet spreadsheet = getSpreadsheet(null, sheetId, userId, password);
+        CellRange cells = SpreadsheetsImpl.window(window.value(), spreadsheet);
 
         Map<String, Long> versions = headers.getRequestHeaders().entrySet().stream()
                 .filter(e -> e.getKey().contains(HEADER_VERSION))
@@ -184,7 +205,9 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
                         e -> Long.parseLong(e.getValue().get(0))
                 ));
 
-        Result<String[][]> values = engine.computeSpreadsheetValues(versions, spreadsheet);
+        Deadline deadline = Deadline.fromHeader(headers.getHeaderString(Deadline.HEADER));
+        Result<CellValues> values = cells == null ? Deadline.with(deadline, () -> engine.computeValues(versions, spreadsheet)) :
+                cells.isEmpty() ? Result.ok(new CellValues(0, 0)) : Deadline.with(deadline, () -> engine.computeValues(versions, spreadsheet, cells));
         if(!values.isOK())
             throw new WebApplicationException(mapError(values.error()));
         else {
@@ -218,12 +241,55 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
                 if (!repositoryClient.uploadSpreadsheet(path, spreadsheet).isOK())
                     throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
 
+                engine.invalidateCell(sheetId, coordinates.getLeft(), coordinates.getRight());
+
             } catch (InvalidCellIdException e) {
                 throw new WebApplicationException(Response.Status.BAD_REQUEST);
             }
         }
     }
 
+    @Override
+    public void updateCells(String sheetId, Map<String, String> rawValues, String userId, String password) {
+
+        if( sheetId == null || rawValues == null || userId == null || password == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        synchronized(this) {
+            Spreadsheet spreadsheet = getSpreadsheet(null, sheetId, userId, password);
+
+            List<Pair<Integer,Integer>> coordinates = new ArrayList<>(rawValues.size());
+            try {
+                for (Map.Entry<String,String> entry : rawValues.entrySet()) {
+                    Pair<Integer,Integer> cell = Cell.CellId2Indexes(entry.getKey());
+                    if (entry.getValue() == null || cell.getLeft() < 0 || cell.getLeft() >= spreadsheet.getRows() || cell.getRight() < 0 || cell.getRight() >= spreadsheet.getColumns())
+                        throw new WebApplicationException(Response.Status.BAD_REQUEST);
+                    coordinates.add(cell);
+                }
+            } catch (InvalidCellIdException | NullPointerException e) {
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+
+            if (coordinates.isEmpty())
+                return;
+
+            int i = 0;
+            for (String rawValue : rawValues.values()) {
+                Pair<Integer,Integer> cell = coordinates.get(i++);
+                spreadsheet.placeCellRawValue(cell.getLeft(), cell.getRight(), rawValue);
+            }
+
+            String path = "/"+domainId+"/"+sheetId.replace('~','/');
+
+            if (!repositoryClient.uploadSpreadsheet(path, spreadsheet).isOK())
+                throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+
+            for (Pair<Integer,Integer> cell : coordinates)
+                engine.invalidateCell(sheetId, cell.getLeft(), cell.getRight());
+        }
+    }
+
 
     @Override
     public void shareSpreadsheet(String sheetId, String userId, String password) {
@@ -305,8 +371,18 @@ public class SpreadsheetProxyResource implements RestSpreadsheets {
 
             if(!repositoryClient.delete("/"+domainId+"/"+userId).isOK())
                 throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+
+            UsersCachingClient.invalidate(userId);
         }
     }
+
+    @Override
+    public void invalidateCredentials(String userId, String secret) {
+        if (!ServerSecret.matches(secret))
+            throw new WebApplicationException(Response.Status.FORBIDDEN);
+
+        UsersCachingClient.invalidate(userId);
+    }
 }
 
 
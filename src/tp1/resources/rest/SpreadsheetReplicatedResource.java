@@ -17,6 +17,11 @@ import tp1.kafka.KafkaSubscriber;
 import tp1.kafka.RecordProcessor;
 import tp1.kafka.event.*;
 import tp1.kafka.sync.SyncPoint;
+import tp1.util.CellRange;
+import tp1.util.CellValues;
+import tp1.util.Deadline;
+import tp1.util.ETags;
+import tp1.util.ImportPath;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
@@ -88,6 +93,11 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 							Result<Void> result = impl.updateCell(sheetEvent.getSheetId(), sheetEvent.getCell(), sheetEvent.getRawValue(), sheetEvent.getUserId(), sheetEvent.getPassword());
 							sp.setResult(r.offset(), result);
 						}
+						case UpdateCellsEvent -> {
+							UpdateCellsEvent sheetEvent = json.fromJson(new String(event.getJsonPayload(), StandardCharsets.ISO_8859_1), UpdateCellsEvent.class);
+							Result<Void> result = impl.updateCells(sheetEvent.getSheetId(), sheetEvent.getRawValues(), sheetEvent.getUserId(), sheetEvent.getPassword());
+							sp.setResult(r.offset(), result);
+						}
 						case ShareSpreadsheetEvent -> {
 							ShareSpreadsheetEvent sheetEvent = json.fromJson(new String(event.getJsonPayload(), StandardCharsets.ISO_8859_1), ShareSpreadsheetEvent.class);
 							Result<Void> result = impl.shareSpreadsheet(sheetEvent.getSheetId(), sheetEvent.getUserId(), sheetEvent.getPassword());
@@ -176,13 +186,17 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 
 		sp.waitForResult(version);
 
-		Result<Spreadsheet> result = impl.getSpreadsheet(sheetId, userId, password);
+		Result<Spreadsheet> result = impl.getSpreadsheet(sheetId, userId, password, headers.getHeaderString(HttpHeaders.IF_NONE_MATCH));
 		if(!result.isOK())
 			throw new WebApplicationException(mapError(result.error()));
-		else
+		else {
+			Response.ResponseBuilder builder = result.value() == null ?
+					Response.status(Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
 			throw new WebApplicationException(
-					Response.status(200).header(RestSpreadsheets.HEADER_VERSION+domainId, SyncPoint.getVersion()).entity(result.value()).build()
+					builder.header(HttpHeaders.ETAG, result.getOthers().get(HttpHeaders.ETAG))
+							.header(RestSpreadsheets.HEADER_VERSION+domainId, SyncPoint.getVersion()).build()
 			);
+		}
 	}
 
 	@Override
@@ -203,11 +217,17 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 
 		sp.waitForResult(version);
 
-		Result<String[][]> result = impl.getReferencedSpreadsheetValues(versions, sheetId, userId, range);
+		ImportPath path = ImportPath.fromHeaders(headers.getHeaderString(ImportPath.PATH_HEADER), headers.getHeaderString(ImportPath.HOPS_HEADER));
+		Deadline deadline = Deadline.fromHeader(headers.getHeaderString(Deadline.HEADER));
+		Result<String[][]> result = Deadline.with(deadline, () -> ImportPath.with(path, () -> impl.getReferencedSpreadsheetValues(versions, sheetId, userId, range)));
 		if(!result.isOK())
 			throw new WebApplicationException(mapError(result.error()));
 		else {
-			Response.ResponseBuilder builder = Response.status(200).entity(result.value());
+			String etag = ETags.of(result.value());
+
+			Response.ResponseBuilder builder = ETags.matches(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), etag) ?
+					Response.status(Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
+			builder.header(HttpHeaders.ETAG, etag);
 
 			for (Map.Entry<String,String> entry : result.getOthers().entrySet()) {
 				builder.header(entry.getKey(), entry.getValue());
@@ -220,7 +240,8 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 	}
 
 	@Override
-	public String[][] getSpreadsheetValues(HttpHeaders headers, String sheetId, String userId, String password) {
+	public String[][] getSpreadsheetValues(HttpHeaders headers, String sheetId, String userId, String password,
+										   String range, Integer rowOffset, Integer rowLimit) {
 
 		if( sheetId == null || userId == null ) {
 			throw new WebApplicationException(Status.BAD_REQUEST);
@@ -237,11 +258,17 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 
 		sp.waitForResult(version);
 
-		Result<String[][]> result = impl.getSpreadsheetValues(versions, sheetId, userId, password);
+		Result<CellRange> window = SpreadsheetsImpl.window(range, rowOffset, rowLimit);
+		if(!window.isOK())
+			throw new WebApplicationException(mapError(window.error()));
+
+		Deadline deadline = Deadline.fromHeader(headers.getHeaderString(Deadline.HEADER));
+		Result<CellValues> result = Deadline.with(deadline, () -> impl.getCellValues(versions, sheetId, userId, password, headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), window.value()));
 		if(!result.isOK())
 			throw new WebApplicationException(mapError(result.error()));
 		else {
-			Response.ResponseBuilder builder = Response.status(200).entity(result.value());
+			Response.ResponseBuilder builder = result.value() == null ?
+					Response.status(Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
 
 			for (Map.Entry<String,String> entry : result.getOthers().entrySet()) {
 				builder.header(entry.getKey(), entry.getValue());
@@ -275,6 +302,28 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 	}
 
 
+	@Override
+	public void updateCells(String sheetId, Map<String, String> rawValues, String userId, String password) {
+
+		if( sheetId == null || rawValues == null || userId == null || password == null) {
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+
+		byte[] payload = json.toJson(new UpdateCellsEvent(sheetId, rawValues, userId, password)).getBytes(StandardCharsets.ISO_8859_1);
+		KafkaEvent kafkaEvent = new KafkaEvent(domainId, Discovery.getServiceURI(), KafkaEvent.Type.UpdateCellsEvent, payload);
+
+		long sequenceNumber = publisher.publish(domainId, json.toJson(kafkaEvent));
+
+		Result<Void> result = sp.waitForResult(sequenceNumber);
+		if(!result.isOK())
+			throw new WebApplicationException(mapError(result.error()));
+		else
+			throw new WebApplicationException(
+					Response.status(204).header(RestSpreadsheets.HEADER_VERSION+domainId, SyncPoint.getVersion()).build()
+			);
+	}
+
+
 	@Override
 	public void shareSpreadsheet(String sheetId, String userId, String password) {
 
@@ -335,5 +384,15 @@ public class SpreadsheetReplicatedResource implements RestSpreadsheets {
 			);
 		}
 	}
+
+	/**
+	 * Not replicated through Kafka: the users service sends it to every replica.
+	 */
+	@Override
+	public void invalidateCredentials(String userId, String secret) {
+		Result<Void> result = impl.invalidateCredentials(userId, secret);
+		if(!result.isOK())
+			throw new WebApplicationException(mapError(result.error()));
+	}
 }
 
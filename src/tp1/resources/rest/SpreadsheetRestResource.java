@@ -8,6 +8,11 @@ import tp1.api.Spreadsheet;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.api.service.util.Result;
 import tp1.impl.SpreadsheetsImpl;
+import tp1.util.CellRange;
+import tp1.util.CellValues;
+import tp1.util.ETags;
+import tp1.util.Deadline;
+import tp1.util.ImportPath;
 import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -44,11 +49,16 @@ public class SpreadsheetRestResource implements RestSpreadsheets {
 
 	@Override
 	public Spreadsheet getSpreadsheet(HttpHeaders headers, String sheetId, String userId, String password) {
-		Result<Spreadsheet> result = impl.getSpreadsheet(sheetId, userId, password);
+		Result<Spreadsheet> result = impl.getSpreadsheet(sheetId, userId, password, headers.getHeaderString(HttpHeaders.IF_NONE_MATCH));
 		if(!result.isOK())
 			throw new WebApplicationException(mapError(result.error()));
-		else
-			return result.value();
+		else {
+			Response.ResponseBuilder builder = result.value() == null ?
+					Response.status(Response.Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
+			builder.header(HttpHeaders.ETAG, result.getOthers().get(HttpHeaders.ETAG));
+
+			throw new WebApplicationException(builder.build());
+		}
 	}
 
 	@Override
@@ -60,14 +70,20 @@ public class SpreadsheetRestResource implements RestSpreadsheets {
 						e -> Long.parseLong(e.getValue().get(0))
 				));
 
-		Result<String[][]> result = impl.getReferencedSpreadsheetValues(versions, sheetId, userId, range);
+		ImportPath path = ImportPath.fromHeaders(headers.getHeaderString(ImportPath.PATH_HEADER), headers.getHeaderString(ImportPath.HOPS_HEADER));
+		Deadline deadline = Deadline.fromHeader(headers.getHeaderString(Deadline.HEADER));
+		Result<String[][]> result = Deadline.with(deadline, () -> ImportPath.with(path, () -> impl.getReferencedSpreadsheetValues(versions, sheetId, userId, range)));
 
 		System.out.println(result);
 
 		if(!result.isOK())
 			throw new WebApplicationException(mapError(result.error()));
 		else {
-			Response.ResponseBuilder builder = Response.status(200).entity(result.value());
+			String etag = ETags.of(result.value());
+
+			Response.ResponseBuilder builder = ETags.matches(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), etag) ?
+					Response.status(Response.Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
+			builder.header(HttpHeaders.ETAG, etag);
 
 			for (Map.Entry<String,String> entry : result.getOthers().entrySet()) {
 				builder.header(entry.getKey(), entry.getValue());
@@ -78,7 +94,8 @@ public class SpreadsheetRestResource implements RestSpreadsheets {
 	}
 
 	@Override
-	public String[][] getSpreadsheetValues(HttpHeaders headers, String sheetId, String userId, String password) {
+	public String[][] getSpreadsheetValues(HttpHeaders headers, String sheetId, String userId, String password,
+										   String range, Integer rowOffset, Integer rowLimit) {
 		Map<String, Long> versions = headers.getRequestHeaders().entrySet().stream()
 				.filter(e -> e.getKey().contains(HEADER_VERSION))
 				.collect(Collectors.toMap(
@@ -86,13 +103,19 @@ public class SpreadsheetRestResource implements RestSpreadsheets {
 						e -> Long.parseLong(e.getValue().get(0))
 				));
 
-		Result<String[][]> result = impl.getSpreadsheetValues(versions, sheetId, userId, password);
+		Result<CellRange> window = SpreadsheetsImpl.window(range, rowOffset, rowLimit);
+		if(!window.isOK())
+			throw new WebApplicationException(mapError(window.error()));
+
+		Deadline deadline = Deadline.fromHeader(headers.getHeaderString(Deadline.HEADER));
+		Result<CellValues> result = Deadline.with(deadline, () -> impl.getCellValues(versions, sheetId, userId, password, headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), window.value()));
 
 		if(!result.isOK()) {
 			throw new WebApplicationException(mapError(result.error()));
 		}
 		else {
-			Response.ResponseBuilder builder = Response.status(200).entity(result.value());
+			Response.ResponseBuilder builder = result.value() == null ?
+					Response.status(Response.Status.NOT_MODIFIED) : Response.status(200).entity(result.value());
 
 			for (Map.Entry<String,String> entry : result.getOthers().entrySet()) {
 				builder.header(entry.getKey(), entry.getValue());
@@ -109,6 +132,13 @@ public class SpreadsheetRestResource implements RestSpreadsheets {
 			throw new WebApplicationException(mapError(result.error()));
 	}
 
+	@Override
+	public void updateCells(String sheetId, Map<String, String> rawValues, String userId, String password) {
+		Result<Void> result = impl.updateCells(sheetId, rawValues, userId, password);
+		if(!result.isOK())
+			throw new WebApplicationException(mapError(result.error()));
+	}
+
 
 	@Override
 	public void shareSpreadsheet(String sheetId, String userId, String password) {
@@ -130,5 +160,12 @@ public class SpreadsheetRestResource implements RestSpreadsheets {
 		if(!result.isOK())
 			throw new WebApplicationException(mapError(result.error()));
 	}
+
+	@Override
+	public void invalidateCredentials(String userId, String secret) {
+		Result<Void> result = impl.invalidateCredentials(userId, secret);
+		if(!result.isOK())
+			throw new WebApplicationException(mapError(result.error()));
+	}
 }
 
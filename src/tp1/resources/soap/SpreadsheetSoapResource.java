@@ -1,13 +1,20 @@
 package tp1.resources.soap;
 
+import jakarta.annotation.Resource;
 import jakarta.jws.WebService;
+import jakarta.xml.ws.WebServiceContext;
+import jakarta.xml.ws.handler.MessageContext;
 import tp1.api.Spreadsheet;
 import tp1.api.service.soap.SheetsException;
 import tp1.api.service.soap.SoapSpreadsheets;
 import tp1.api.service.util.Result;
 import tp1.impl.SpreadsheetsImpl;
+import tp1.util.Deadline;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static tp1.api.service.util.Result.mapError;
@@ -22,6 +29,9 @@ public class SpreadsheetSoapResource implements SoapSpreadsheets {
 	private final String domainId;
 	private final SpreadsheetsImpl impl;
 
+	@Resource
+	private WebServiceContext context;
+
 	public SpreadsheetSoapResource(String domainId) {
 		this.domainId = domainId;
 		this.impl = new SpreadsheetsImpl(domainId);
@@ -55,7 +65,7 @@ public class SpreadsheetSoapResource implements SoapSpreadsheets {
 
 	@Override
 	public String[][] getReferencedSpreadsheetValues(String sheetId, String userId, String range) throws SheetsException {
-		Result<String[][]> result = impl.getReferencedSpreadsheetValues(new HashMap<>(), sheetId, userId, range);
+		Result<String[][]> result = Deadline.with(deadline(), () -> impl.getReferencedSpreadsheetValues(new HashMap<>(), sheetId, userId, range));
 		if(!result.isOK())
 			throw new SheetsException(result.error().name());
 		else
@@ -64,7 +74,7 @@ public class SpreadsheetSoapResource implements SoapSpreadsheets {
 
 	@Override
 	public String[][] getSpreadsheetValues(String sheetId, String userId, String password) throws SheetsException {
-		Result<String[][]> result = impl.getSpreadsheetValues(new HashMap<>(), sheetId, userId, password);
+		Result<String[][]> result = Deadline.with(deadline(), () -> impl.getSpreadsheetValues(new HashMap<>(), sheetId, userId, password));
 		if(!result.isOK())
 			throw new SheetsException(result.error().name());
 		else
@@ -78,6 +88,20 @@ public class SpreadsheetSoapResource implements SoapSpreadsheets {
 			throw new SheetsException(result.error().name());
 	}
 
+	@Override
+	public void updateCells(String sheetId, String[] cells, String[] rawValues, String userId, String password) throws SheetsException {
+		if (cells == null || rawValues == null || cells.length != rawValues.length)
+			throw new SheetsException(Result.ErrorCode.BAD_REQUEST.name());
+
+		Map<String, String> values = new LinkedHashMap<>();
+		for (int i = 0; i < cells.length; i++)
+			values.put(cells[i], rawValues[i]);
+
+		Result<Void> result = impl.updateCells(sheetId, values, userId, password);
+		if(!result.isOK())
+			throw new SheetsException(result.error().name());
+	}
+
 
 	@Override
 	public void shareSpreadsheet(String sheetId, String userId, String password) throws SheetsException {
@@ -99,5 +123,27 @@ public class SpreadsheetSoapResource implements SoapSpreadsheets {
 		if(!result.isOK())
 			throw new SheetsException(result.error().name());
 	}
-}
 
+	@Override
+	public void invalidateCredentials(String userId, String secret) throws SheetsException {
+		Result<Void> result = impl.invalidateCredentials(userId, secret);
+		if(!result.isOK())
+			throw new SheetsException(result.error().name());
+	}
+
+	/**
+	 * @return the deadline of the current request, from its Sheets-Deadline HTTP header.
+	 */
+	private Deadline deadline() {
+		String budget = null;
+		if (context != null) {
+			@SuppressWarnings("unchecked")
+			var headers = (Map<String, List<String>>) context.getMessageContext().get(MessageContext.HTTP_REQUEST_HEADERS);
+			if (headers != null)
+				for (Map.Entry<String, List<String>> entry : headers.entrySet())
+					if (Deadline.HEADER.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty())
+						budget = entry.getValue().get(0);
+		}
+		return Deadline.fromHeader(budget);
+	}
+}
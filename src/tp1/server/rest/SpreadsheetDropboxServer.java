@@ -6,7 +6,10 @@ import tp1.clients.sheet.SpreadsheetDropboxClient;
 import tp1.discovery.Discovery;
 import tp1.resources.rest.SpreadsheetProxyResource;
 import tp1.server.rest.UsersRestServer;
+import tp1.util.BinaryGridProvider;
+import tp1.util.Compression;
 import tp1.util.InsecureHostnameVerifier;
+import tp1.util.StreamingJsonWriter;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -42,6 +45,9 @@ public class SpreadsheetDropboxServer {
 
             ResourceConfig config = new ResourceConfig();
             config.register(new SpreadsheetProxyResource(domain, dropboxClient));
+            config.register(StreamingJsonWriter.class);
+            config.register(BinaryGridProvider.class);
+            config.register(Compression.Server.class);
 
             String serverURI = String.format("https://%s:%s/rest", ip, PORT);
             JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config, SSLContext.getDefault());
@@ -5,7 +5,10 @@ import org.glassfish.jersey.server.ResourceConfig;
 import tp1.discovery.Discovery;
 import tp1.kafka.sync.SyncPoint;
 import tp1.resources.rest.SpreadsheetReplicatedResource;
+import tp1.util.BinaryGridProvider;
+import tp1.util.Compression;
 import tp1.util.InsecureHostnameVerifier;
+import tp1.util.StreamingJsonWriter;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -42,6 +45,9 @@ public class SpreadsheetReplicaServer {
             ResourceConfig config = new ResourceConfig();
             SpreadsheetReplicatedResource resource = new SpreadsheetReplicatedResource(domain, sp);
             config.register(resource);
+            config.register(StreamingJsonWriter.class);
+            config.register(BinaryGridProvider.class);
+            config.register(Compression.Server.class);
 
             JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config, SSLContext.getDefault());
 
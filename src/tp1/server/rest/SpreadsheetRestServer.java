@@ -4,7 +4,10 @@ import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 import tp1.discovery.Discovery;
 import tp1.resources.rest.SpreadsheetRestResource;
+import tp1.util.BinaryGridProvider;
+import tp1.util.Compression;
 import tp1.util.InsecureHostnameVerifier;
+import tp1.util.StreamingJsonWriter;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -35,6 +38,9 @@ public class SpreadsheetRestServer {
 
             ResourceConfig config = new ResourceConfig();
             config.register(new SpreadsheetRestResource(domain));
+            config.register(StreamingJsonWriter.class);
+            config.register(BinaryGridProvider.class);
+            config.register(Compression.Server.class);
 
             String serverURI = String.format("https://%s:%s/rest", ip, PORT);
             JdkHttpServerFactory.createHttpServer(URI.create(serverURI), config, SSLContext.getDefault());
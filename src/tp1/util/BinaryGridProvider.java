@@ -0,0 +1,426 @@
+package tp1.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.MessageBodyReader;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+import tp1.api.Spreadsheet;
+import tp1.api.service.rest.RestSpreadsheets;
+
+/**
+ *
+ * Reads and writes grids of cells (String[][] or CellValues) and spreadsheets in the compact binary format of
+ * RestSpreadsheets.APPLICATION_GRID, chosen instead of JSON when the request asks for it in its Accept or
+ * Content-Type header.
+ *
+ * A message starts with the magic bytes "SG", a version byte and a byte telling whether it holds a grid or a
+ * spreadsheet. Counts and indices are unsigned varints. Strings are kept in a dictionary built as the message is
+ * written: a string is written once, as its length and UTF-8 bytes, and later occurrences refer to its index.
+ *
+ * A grid is its rows and columns followed by its cells column by column. A column whose cells are all numbers is
+ * written as doubles; any other column as references to strings. Spreadsheets are written field by field, with
+ * the raw values row by row, as they come out of the sparse store.
+ *
+ * Messages are read as their bytes arrive, never allocating ahead for the counts they announce, and may hold at
+ * most sheets.grid.maxCells cells and sheets.grid.maxBytes bytes of strings in all; malformed messages are
+ * rejected as bad requests.
+ *
+ */
+@Provider
+@Produces(RestSpreadsheets.APPLICATION_GRID)
+@Consumes(RestSpreadsheets.APPLICATION_GRID)
+public class BinaryGridProvider implements MessageBodyWriter<Object>, MessageBodyReader<Object> {
+
+	private static final byte[] MAGIC = { 'S', 'G' };
+	private static final byte VERSION = 1;
+
+	private static final byte GRID = 0, SPREADSHEET = 1;
+
+	static final byte TEXT_COLUMN = 0, NUMBER_COLUMN = 1;
+
+	// string references: NULL, a NEW string follows, or FIRST + the index of a string already sent
+	static final int NULL = 0, NEW = 1, FIRST = 2;
+
+	public static final String MAX_CELLS_PROPERTY = "sheets.grid.maxCells";
+
+	public static final String MAX_BYTES_PROPERTY = "sheets.grid.maxBytes";
+
+	private static final int DEFAULT_MAX_CELLS = 4_000_000;
+
+	private static final int DEFAULT_MAX_BYTES = 64 << 20;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == String[][].class || CellValues.class.isAssignableFrom(type) || Spreadsheet.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == String[][].class || type == Spreadsheet.class;
+	}
+
+	@Override
+	public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+		var out = new GridWriter(new DataOutputStream(new BufferedOutputStream(entityStream, BUFFER_SIZE)));
+		out.data.write(MAGIC);
+		out.data.writeByte(VERSION);
+
+		if (entity instanceof Spreadsheet) {
+			out.data.writeByte(SPREADSHEET);
+			out.write((Spreadsheet) entity);
+		} else {
+			out.data.writeByte(GRID);
+			if (entity instanceof CellValues)
+				out.write(new ValuesGrid((CellValues) entity));
+			else
+				out.write(new StringsGrid((String[][]) entity));
+		}
+		out.data.flush();
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+		var in = new GridReader(new DataInputStream(new BufferedInputStream(entityStream, BUFFER_SIZE)),
+				Integer.getInteger(MAX_CELLS_PROPERTY, DEFAULT_MAX_CELLS), Integer.getInteger(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.data.readFully(magic);
+			if (magic[0] != MAGIC[0] || magic[1] != MAGIC[1] || in.data.readByte() != VERSION)
+				throw new IOException("Not a " + RestSpreadsheets.APPLICATION_GRID + " message");
+
+			byte kind = in.data.readByte();
+			if (kind == SPREADSHEET && Spreadsheet.class.equals(type))
+				return in.readSpreadsheet();
+			else if (kind == GRID && String[][].class.equals(type))
+				return in.readGrid();
+			else
+				throw new IOException("Unexpected " + RestSpreadsheets.APPLICATION_GRID + " message for " + type.getSimpleName());
+		} catch (IOException x) {
+			throw new WebApplicationException("Malformed " + RestSpreadsheets.APPLICATION_GRID + " message", x, Response.Status.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * @return the number written as text, if converting it back to text gives the same string; null otherwise.
+	 */
+	static Double exactNumber(String value) {
+		if (value == null || value.isEmpty())
+			return null;
+		char c = value.charAt(0);
+		if (c != '-' && (c < '0' || c > '9'))
+			return null;
+		try {
+			double number = Double.parseDouble(value);
+			return Double.toString(number).equals(value) ? number : null;
+		} catch (NumberFormatException x) {
+			return null;
+		}
+	}
+}
+
+/**
+ * A rectangular grid of cells, as seen by the writer.
+ */
+interface Grid {
+
+	int rows();
+
+	int cols();
+
+	/**
+	 * @return the value of the cell, null if it is not a number.
+	 */
+	Double number(int row, int col);
+
+	String text(int row, int col);
+}
+
+class ValuesGrid implements Grid {
+
+	private final CellValues values;
+
+	ValuesGrid(CellValues values) {
+		this.values = values;
+	}
+
+	@Override
+	public int rows() {
+		return values.rows();
+	}
+
+	@Override
+	public int cols() {
+		return values.cols();
+	}
+
+	@Override
+	public Double number(int row, int col) {
+		Object value = values.get(row, col);
+		return value instanceof Double ? (Double) value : null;
+	}
+
+	@Override
+	public String text(int row, int col) {
+		return values.text(row, col);
+	}
+}
+
+class StringsGrid implements Grid {
+
+	private final String[][] values;
+	private final int cols;
+
+	StringsGrid(String[][] values) {
+		this.values = values;
+		int cols = 0;
+		for (String[] row : values)
+			cols = Math.max(cols, row == null ? 0 : row.length);
+		this.cols = cols;
+	}
+
+	@Override
+	public int rows() {
+		return values.length;
+	}
+
+	@Override
+	public int cols() {
+		return cols;
+	}
+
+	@Override
+	public Double number(int row, int col) {
+		return BinaryGridProvider.exactNumber(text(row, col));
+	}
+
+	@Override
+	public String text(int row, int col) {
+		String[] r = values[row];
+		return r == null || col >= r.length ? null : r[col];
+	}
+}
+
+class GridWriter {
+
+	final DataOutputStream data;
+	private final Map<String, Integer> dictionary = new HashMap<>();
+
+	GridWriter(DataOutputStream data) {
+		this.data = data;
+	}
+
+	void write(Grid grid) throws IOException {
+		int rows = grid.rows(), cols = grid.cols();
+		writeCount(rows);
+		writeCount(cols);
+		for (int col = 0; col < cols; col++) {
+			if (rows > 0 && numeric(grid, col)) {
+				data.writeByte(BinaryGridProvider.NUMBER_COLUMN);
+				for (int row = 0; row < rows; row++)
+					data.writeDouble(grid.number(row, col));
+			} else {
+				data.writeByte(BinaryGridProvider.TEXT_COLUMN);
+				for (int row = 0; row < rows; row++)
+					write(grid.text(row, col));
+			}
+		}
+	}
+
+	void write(Spreadsheet sheet) throws IOException {
+		write(sheet.getSheetId());
+		write(sheet.getOwner());
+		write(sheet.getSheetURL());
+		writeCount(sheet.getRows());
+		writeCount(sheet.getColumns());
+
+		Set<String> sharedWith = sheet.getSharedWith();
+		writeCount(sharedWith == null ? 0 : sharedWith.size() + 1);
+		if (sharedWith != null)
+			for (String user : sharedWith)
+				write(user);
+
+		int rows = sheet.extractRawRows();
+		writeCount(rows + 1);
+		for (int row = 0; row < rows; row++) {
+			String[] values = sheet.extractRowRawValues(row);
+			writeCount(values == null ? 0 : values.length + 1);
+			if (values != null)
+				for (String value : values)
+					write(value);
+		}
+	}
+
+	private static boolean numeric(Grid grid, int col) {
+		for (int row = 0; row < grid.rows(); row++)
+			if (grid.number(row, col) == null)
+				return false;
+		return true;
+	}
+
+	private void write(String value) throws IOException {
+		if (value == null) {
+			writeCount(BinaryGridProvider.NULL);
+			return;
+		}
+		Integer index = dictionary.get(value);
+		if (index != null) {
+			writeCount(BinaryGridProvider.FIRST + index);
+			return;
+		}
+		dictionary.put(value, dictionary.size());
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeCount(BinaryGridProvider.NEW);
+		writeCount(bytes.length);
+		data.write(bytes);
+	}
+
+	private void writeCount(int n) throws IOException {
+		while ((n & ~0x7F) != 0) {
+			data.writeByte((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		data.writeByte(n);
+	}
+}
+
+class GridReader {
+
+	final DataInputStream data;
+	private final List<String> dictionary = new ArrayList<>();
+	private final int maxCells, maxBytes;
+	private int cells, bytes;
+
+	GridReader(DataInputStream data, int maxCells, int maxBytes) {
+		this.data = data;
+		this.maxCells = maxCells;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Reads the cells column by column, as they arrive, and only then lays them out row by row.
+	 */
+	String[][] readGrid() throws IOException {
+		int rows = readCount(maxCells), cols = readCount(maxCells);
+		count((long) rows * cols);
+
+		List<String[]> columns = new ArrayList<>();
+		for (int col = 0; col < cols; col++) {
+			byte kind = data.readByte();
+			List<String> column = new ArrayList<>();
+			for (int row = 0; row < rows; row++)
+				column.add(kind == BinaryGridProvider.NUMBER_COLUMN ? Double.toString(data.readDouble()) : readString());
+			columns.add(column.toArray(new String[0]));
+		}
+
+		var values = new String[rows][cols];
+		for (int col = 0; col < cols; col++)
+			for (int row = 0; row < rows; row++)
+				values[row][col] = columns.get(col)[row];
+		return values;
+	}
+
+	Spreadsheet readSpreadsheet() throws IOException {
+		var sheet = new Spreadsheet();
+		sheet.setSheetId(readString());
+		sheet.setOwner(readString());
+		sheet.setSheetURL(readString());
+		sheet.setRows(readCount(Integer.MAX_VALUE));
+		sheet.setColumns(readCount(Integer.MAX_VALUE));
+
+		int shares = readCount(maxCells);
+		if (shares > 0) {
+			Set<String> sharedWith = new HashSet<>();
+			for (int i = 1; i < shares; i++)
+				sharedWith.add(readString());
+			sheet.setSharedWith(sharedWith);
+		}
+
+		int rows = readCount(maxCells) - 1;
+		if (rows >= 0) {
+			List<String[]> rawValues = new ArrayList<>();
+			for (int row = 0; row < rows; row++) {
+				int cols = readCount(maxCells) - 1;
+				if (cols < 0) {
+					rawValues.add(null);
+					continue;
+				}
+				count(cols);
+				List<String> values = new ArrayList<>();
+				for (int col = 0; col < cols; col++)
+					values.add(readString());
+				rawValues.add(values.toArray(new String[0]));
+			}
+			sheet.setRawValues(rawValues.toArray(new String[0][]));
+		}
+		return sheet;
+	}
+
+	private String readString() throws IOException {
+		int ref = readCount(BinaryGridProvider.FIRST + dictionary.size() - 1);
+		if (ref == BinaryGridProvider.NULL)
+			return null;
+		if (ref != BinaryGridProvider.NEW)
+			return dictionary.get(ref - BinaryGridProvider.FIRST);
+
+		// the length is checked against what is left of the budget before any byte is read, and the bytes are
+		// buffered as they arrive, not all at once for the length announced
+		int length = readCount(maxBytes - bytes);
+		bytes += length;
+		byte[] utf8 = data.readNBytes(length);
+		if (utf8.length < length)
+			throw new EOFException();
+		String value = new String(utf8, StandardCharsets.UTF_8);
+		dictionary.add(value);
+		return value;
+	}
+
+	/**
+	 * Accounts for cells about to be read, failing if the message holds more than maxCells of them.
+	 */
+	private void count(long n) throws IOException {
+		if (n > maxCells - cells)
+			throw new IOException("More than " + maxCells + " cells");
+		cells += n;
+	}
+
+	private int readCount(int max) throws IOException {
+		int n = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = data.readByte();
+			n |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (n < 0 || n > max)
+					throw new IOException("Count out of range: " + Integer.toUnsignedString(n));
+				return n;
+			}
+		}
+		throw new IOException("Malformed count");
+	}
+}
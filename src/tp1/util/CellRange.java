@@ -28,6 +28,58 @@ public class CellRange {
 		} else
 			topRow = topCol = botRow = botCol = -1; // bad range string.
 	}
+
+	/**
+	 * Creates the range of cells with the given top and bottom corner index coordinates.
+	 */
+	public CellRange( int topRow, int topCol, int botRow, int botCol ) {
+		this.topRow = topRow;
+		this.topCol = topCol;
+		this.botRow = botRow;
+		this.botCol = botCol;
+	}
+
+	/**
+	 * Computes the smallest range of cells containing both this range and the other one.
+	 * @param other - the other range.
+	 * @return the bounding range.
+	 */
+	public CellRange union( CellRange other ) {
+		return new CellRange( Math.min(topRow, other.topRow), Math.min(topCol, other.topCol), Math.max(botRow, other.botRow), Math.max(botCol, other.botCol));
+	}
+
+	/**
+	 * Computes the range of cells contained in both this range and the other one.
+	 * @param other - the other range.
+	 * @return the common range, with no rows or no columns if the ranges do not overlap.
+	 */
+	public CellRange intersection( CellRange other ) {
+		return new CellRange( Math.max(topRow, other.topRow), Math.max(topCol, other.topCol), Math.min(botRow, other.botRow), Math.min(botCol, other.botCol));
+	}
+
+	/**
+	 * @return true if this range contains no cells.
+	 */
+	public boolean isEmpty() {
+		return rows() <= 0 || cols() <= 0;
+	}
+
+	/**
+	 * Computes the coordinates of this range relative to the top corner of an enclosing range.
+	 * @param outer - the enclosing range.
+	 * @return the range, shifted so that the top corner of outer becomes A1.
+	 */
+	public CellRange relativeTo( CellRange outer ) {
+		return new CellRange( topRow - outer.topRow, topCol - outer.topCol, botRow - outer.topRow, botCol - outer.topCol);
+	}
+
+	/**
+	 * Converts this range to its textual form, e.g. "A3:C4".
+	 * @return the range string.
+	 */
+	public String toRangeString() {
+		return Cell.Indices2CellId(topRow, topCol) + ":" + Cell.Indices2CellId(botRow, botCol);
+	}
 	
 	/**
 	 * Computes the number of columns this range of cells contains.
@@ -0,0 +1,239 @@
+package tp1.util;
+
+import java.util.Arrays;
+
+import tp1.api.engine.CellType;
+
+/**
+ *
+ * The computed values of a grid of cells, stored sparsely as SparseCells stores raw values: each row keeps its
+ * non empty cells sorted by column, in primitive arrays instead of one String per cell. Numbers and booleans are
+ * kept in a double[] (booleans as 0 or 1) and texts in a String[], next to the kind of each cell, which tells how
+ * to read its value. Cells never set are empty.
+ *
+ * Copies share their rows until either of them writes one, so copy() only copies the array of rows, and a copy
+ * no longer written is an immutable snapshot that can be handed out without copying it again.
+ *
+ * Values are only converted to strings, and the grid only becomes dense, when it is about to be serialized:
+ * all at once by toStrings(), or one cell at a time by text(), as the JSON writer streams them out.
+ *
+ */
+public class CellValues {
+
+	public static final String ERROR = "#ERROR?";
+
+	private static final byte NUMBER = 1, BOOLEAN = 2, TEXT = 3, FAILED = 4;
+
+	private static final Row EMPTY_ROW = new Row(null, 0);
+
+	private final int rows, cols;
+	private final Row[] cells;
+	private int size;
+
+	// the rows written by this grid since it was last copied, and only those, are owned by it
+	private Object owner = new Object();
+
+	public CellValues(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.cells = new Row[rows];
+		Arrays.fill(cells, EMPTY_ROW);
+	}
+
+	private CellValues(CellValues other) {
+		this.rows = other.rows;
+		this.cols = other.cols;
+		this.cells = other.cells.clone();
+		this.size = other.size;
+		other.owner = new Object();
+	}
+
+	/**
+	 * Parses a 2D array of values, as computed by a (remote) engine: numbers and booleans recover their type,
+	 * as given by CellType.literal().
+	 */
+	public static CellValues of(String[][] values) {
+		int cols = values.length == 0 ? 0 : values[0].length;
+		var cells = new CellValues(values.length, cols);
+		for (int row = 0; row < values.length; row++)
+			for (int col = 0; col < Math.min(cols, values[row].length); col++) {
+				String value = values[row][col];
+				cells.set(row, col, value == null ? null : CellType.of(value).literal(value));
+			}
+		return cells;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public int cols() {
+		return cols;
+	}
+
+	/**
+	 * @return the number of cells that are not empty, which take up space.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the value of the cell: a Double, a Boolean or a String (the empty string for empty cells),
+	 * or null if the cell failed to compute.
+	 */
+	public Object get(int row, int col) {
+		checkBounds(row, col);
+		var r = cells[row];
+		int i = Arrays.binarySearch(r.cols, 0, r.size, col);
+		if (i < 0)
+			return "";
+		return switch (r.kinds[i]) {
+			case NUMBER -> r.numbers[i];
+			case BOOLEAN -> r.numbers[i] != 0;
+			case TEXT -> r.texts[i];
+			default -> null;
+		};
+	}
+
+	/**
+	 * Stores the value of a cell. Doubles and Booleans keep their type, any other value is stored as its text
+	 * and null marks the cell as failed; the empty string clears the cell.
+	 */
+	public void set(int row, int col, Object value) {
+		checkBounds(row, col);
+		var r = cells[row];
+		if (r.owner != owner)
+			cells[row] = r = r.copy(owner);
+
+		int i = Arrays.binarySearch(r.cols, 0, r.size, col);
+		if (value != null && !(value instanceof Double) && !(value instanceof Boolean) && value.toString().isEmpty()) {
+			if (i >= 0) {
+				r.remove(i);
+				size--;
+			}
+			return;
+		}
+		if (i < 0) {
+			i = -i - 1;
+			r.insert(i, col);
+			size++;
+		}
+
+		r.texts[i] = null;
+		if (value == null)
+			r.kinds[i] = FAILED;
+		else if (value instanceof Double) {
+			r.kinds[i] = NUMBER;
+			r.numbers[i] = (Double) value;
+		} else if (value instanceof Boolean) {
+			r.kinds[i] = BOOLEAN;
+			r.numbers[i] = (Boolean) value ? 1 : 0;
+		} else {
+			r.kinds[i] = TEXT;
+			r.texts[i] = value.toString();
+		}
+	}
+
+	/**
+	 * Copies the values covered by a range of cells. As CellRange.extractRangeValuesFrom(), it assumes
+	 * the range is completely contained in this grid.
+	 */
+	public CellValues slice(CellRange range) {
+		var slice = new CellValues(range.rows(), range.cols());
+		for (int row = range.topRow; row <= range.botRow; row++) {
+			var r = cells[row];
+			int i = Arrays.binarySearch(r.cols, 0, r.size, range.topCol);
+			for (i = i < 0 ? -i - 1 : i; i < r.size && r.cols[i] <= range.botCol; i++)
+				slice.set(row - range.topRow, r.cols[i] - range.topCol, get(row, r.cols[i]));
+		}
+		return slice;
+	}
+
+	/**
+	 * @return a copy of all the values, which shares the rows of this grid until either of them is written.
+	 */
+	public CellValues copy() {
+		return new CellValues(this);
+	}
+
+	/**
+	 * Converts the values to their textual form; failed cells become "#ERROR?".
+	 */
+	public String[][] toStrings() {
+		var values = new String[rows][cols];
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				values[row][col] = text(row, col);
+		return values;
+	}
+
+	/**
+	 * @return the textual form of the value of a cell, as in toStrings().
+	 */
+	public String text(int row, int col) {
+		Object value = get(row, col);
+		return value == null ? ERROR : value.toString();
+	}
+
+	private void checkBounds(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			throw new ArrayIndexOutOfBoundsException(String.format("(%d, %d) outside %d x %d", row, col, rows, cols));
+	}
+
+	/**
+	 * The non empty cells of a row, in the first size positions of its arrays, which grow as cells are added.
+	 * Only the grid that owns the row writes it; the other grids sharing it copy it first.
+	 */
+	private static class Row {
+		final Object owner;
+		int size;
+		int[] cols;
+		byte[] kinds;
+		double[] numbers;
+		String[] texts;
+
+		Row(Object owner, int capacity) {
+			this.owner = owner;
+			this.cols = new int[capacity];
+			this.kinds = new byte[capacity];
+			this.numbers = new double[capacity];
+			this.texts = new String[capacity];
+		}
+
+		Row copy(Object owner) {
+			var r = new Row(owner, Math.max(size, 4));
+			r.size = size;
+			System.arraycopy(cols, 0, r.cols, 0, size);
+			System.arraycopy(kinds, 0, r.kinds, 0, size);
+			System.arraycopy(numbers, 0, r.numbers, 0, size);
+			System.arraycopy(texts, 0, r.texts, 0, size);
+			return r;
+		}
+
+		void insert(int index, int col) {
+			if (size == cols.length) {
+				int capacity = Math.max(4, 2 * size);
+				cols = Arrays.copyOf(cols, capacity);
+				kinds = Arrays.copyOf(kinds, capacity);
+				numbers = Arrays.copyOf(numbers, capacity);
+				texts = Arrays.copyOf(texts, capacity);
+			}
+			System.arraycopy(cols, index, cols, index + 1, size - index);
+			System.arraycopy(kinds, index, kinds, index + 1, size - index);
+			System.arraycopy(numbers, index, numbers, index + 1, size - index);
+			System.arraycopy(texts, index, texts, index + 1, size - index);
+			cols[index] = col;
+			size++;
+		}
+
+		void remove(int index) {
+			size--;
+			System.arraycopy(cols, index + 1, cols, index, size - index);
+			System.arraycopy(kinds, index + 1, kinds, index, size - index);
+			System.arraycopy(numbers, index + 1, numbers, index, size - index);
+			System.arraycopy(texts, index + 1, texts, index, size - index);
+			texts[size] = null;
+		}
+	}
+}
@@ -0,0 +1,393 @@
+package tp1.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+import jakarta.ws.rs.ext.ReaderInterceptor;
+import jakarta.ws.rs.ext.ReaderInterceptorContext;
+import jakarta.ws.rs.ext.WriterInterceptor;
+import jakarta.ws.rs.ext.WriterInterceptorContext;
+
+/**
+ *
+ * Compression of message bodies with gzip or deflate. Bodies received with a Content-Encoding are decoded.
+ * Responses are encoded if the request accepts an encoding (Accept-Encoding) and the body turns out to be longer
+ * than sheets.compression.threshold bytes. The body is held back until that many bytes are written, so
+ * small bodies go out as they are. The compression level is sheets.compression.level, from 1 to 9.
+ *
+ * Decoded bodies longer than sheets.compression.maxInflated bytes are refused with 413 Request Entity Too Large,
+ * as a few kilobytes of compressed zeros can inflate to gigabytes.
+ *
+ * Servers register Compression.Server, which chooses the encoding of each response; clients register
+ * Compression.Client, which asks for compressed responses.
+ *
+ */
+public abstract class Compression implements WriterInterceptor, ReaderInterceptor {
+
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+
+	public static final String THRESHOLD_PROPERTY = "sheets.compression.threshold";
+	public static final String LEVEL_PROPERTY = "sheets.compression.level";
+	public static final String MAX_INFLATED_PROPERTY = "sheets.compression.maxInflated";
+
+	private static final int DEFAULT_THRESHOLD = 1024;
+	private static final int DEFAULT_LEVEL = 6;
+	private static final long DEFAULT_MAX_INFLATED = 64 << 20;
+
+	// request property holding the encoding chosen for the response
+	private static final String ENCODING = Compression.class.getName() + ".encoding";
+
+	static final LongAdder rawBytes = new LongAdder(), compressedBytes = new LongAdder();
+
+	static {
+		Stats.register("compression", () -> rawBytes() + " raw bytes, " + compressedBytes() + " compressed");
+	}
+
+	/**
+	 * @return the number of bytes of the bodies encoded or decoded, before compression.
+	 */
+	public static long rawBytes() {
+		return rawBytes.sum();
+	}
+
+	/**
+	 * @return the number of bytes of the bodies encoded or decoded, after compression.
+	 */
+	public static long compressedBytes() {
+		return compressedBytes.sum();
+	}
+
+	@Override
+	public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+		String encoding = (String) context.getProperty(ENCODING);
+		if (encoding == null) {
+			context.proceed();
+			return;
+		}
+		var out = new ThresholdOutputStream(context.getOutputStream(), context.getHeaders(), encoding);
+		context.setOutputStream(out);
+		try {
+			context.proceed();
+			out.finish();
+		} finally {
+			out.end();
+		}
+	}
+
+	@Override
+	public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+		String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (encoding == null)
+			return context.proceed();
+
+		InputStream in = new CountingInputStream(context.getInputStream(), compressedBytes);
+		switch (encoding.trim().toLowerCase()) {
+			case GZIP -> in = new GZIPInputStream(in);
+			case DEFLATE -> in = new InflaterInputStream(in);
+			default -> {
+				return context.proceed();
+			}
+		}
+		context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+		context.setInputStream(new CountingInputStream(new LimitedInputStream(in, maxInflated()), rawBytes));
+		return context.proceed();
+	}
+
+	/**
+	 * @param acceptEncoding - the value of an Accept-Encoding header, possibly null.
+	 * @return gzip or deflate, whichever is accepted with the higher quality (gzip if both are), null if neither is.
+	 */
+	static String choose(String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+
+		Double gzip = null, deflate = null, any = null;
+		for (String token : acceptEncoding.split(",")) {
+			String[] parts = token.split(";");
+			String coding = parts[0].trim().toLowerCase();
+			double quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q="))
+					try {
+						quality = Double.parseDouble(param.substring(2));
+					} catch (NumberFormatException x) {
+						quality = 0;
+					}
+			}
+			switch (coding) {
+				case GZIP, "x-gzip" -> gzip = quality;
+				case DEFLATE -> deflate = quality;
+				case "*" -> any = quality;
+			}
+		}
+		if (gzip == null)
+			gzip = any == null ? 0 : any;
+		if (deflate == null)
+			deflate = any == null ? 0 : any;
+
+		if (gzip <= 0 && deflate <= 0)
+			return null;
+		return gzip >= deflate ? GZIP : DEFLATE;
+	}
+
+	static int threshold() {
+		return Math.max(0, Integer.getInteger(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD));
+	}
+
+	static long maxInflated() {
+		return Math.max(0, Long.getLong(MAX_INFLATED_PROPERTY, DEFAULT_MAX_INFLATED));
+	}
+
+	static int level() {
+		return Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, Integer.getInteger(LEVEL_PROPERTY, DEFAULT_LEVEL)));
+	}
+
+	/**
+	 * Compresses the responses of a server, with the encoding the request accepts.
+	 */
+	@Provider
+	@Priority(Priorities.ENTITY_CODER)
+	public static class Server extends Compression implements ContainerResponseFilter {
+
+		@Override
+		public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+			// the media type (JSON or binary grids) and the encoding of the body depend on these headers, and caches
+			// must know it even from the responses that have no body, such as 304 Not Modified
+			if (!response.getHeaders().containsKey(HttpHeaders.VARY))
+				response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+
+			if (response.getEntity() == null || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING))
+				return;
+
+			String encoding = choose(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+			if (encoding != null)
+				request.setProperty(ENCODING, encoding);
+		}
+	}
+
+	/**
+	 * Asks for compressed responses and decodes them.
+	 */
+	@Provider
+	@Priority(Priorities.ENTITY_CODER)
+	public static class Client extends Compression implements ClientRequestFilter {
+
+		@Override
+		public void filter(ClientRequestContext request) {
+			if (!request.getHeaders().containsKey(HttpHeaders.ACCEPT_ENCODING))
+				request.getHeaders().putSingle(HttpHeaders.ACCEPT_ENCODING, GZIP + ", " + DEFLATE);
+		}
+	}
+}
+
+/**
+ * Holds the body back until it is longer than the threshold: the body is then compressed, and written as it is
+ * otherwise. The headers can still be changed while it is held back, since nothing was sent yet.
+ */
+class ThresholdOutputStream extends OutputStream {
+
+	private final OutputStream target;
+	private final MultivaluedMap<String, Object> headers;
+	private final String encoding;
+	private final int threshold;
+
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private DeflaterOutputStream compressed;
+	private Deflater deflater;
+
+	ThresholdOutputStream(OutputStream target, MultivaluedMap<String, Object> headers, String encoding) {
+		this.target = target;
+		this.headers = headers;
+		this.encoding = encoding;
+		this.threshold = Compression.threshold();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (compressed != null) {
+			compressed.write(b, off, len);
+			Compression.rawBytes.add(len);
+			return;
+		}
+		pending.write(b, off, len);
+		if (pending.size() > threshold)
+			startCompressing();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (compressed != null)
+			compressed.flush();
+	}
+
+	/**
+	 * Writes what is left of the body, without closing the stream below, and releases the deflater.
+	 */
+	void finish() throws IOException {
+		try {
+			if (compressed != null)
+				compressed.finish();
+			else if (pending != null) {
+				pending.writeTo(target);
+				pending = null;
+			}
+			target.flush();
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Releases the native memory of the deflater, if any, even if the body was not finished; it can be called
+	 * more than once.
+	 */
+	void end() {
+		if (compressed instanceof LeveledGzipOutputStream)
+			((LeveledGzipOutputStream) compressed).end();
+		else if (deflater != null)
+			deflater.end();
+	}
+
+	private void startCompressing() throws IOException {
+		headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+		headers.remove(HttpHeaders.CONTENT_LENGTH);
+
+		OutputStream out = new CountingOutputStream(target, Compression.compressedBytes);
+		if (Compression.GZIP.equals(encoding))
+			compressed = new LeveledGzipOutputStream(out, Compression.level());
+		else
+			compressed = new DeflaterOutputStream(out, deflater = new Deflater(Compression.level()));
+
+		Compression.rawBytes.add(pending.size());
+		pending.writeTo(compressed);
+		pending = null;
+	}
+}
+
+/**
+ * A GZIPOutputStream with a given compression level, whose deflater can be released without closing the stream.
+ */
+class LeveledGzipOutputStream extends GZIPOutputStream {
+
+	LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+		super(out);
+		def.setLevel(level);
+	}
+
+	void end() {
+		def.end();
+	}
+}
+
+class CountingOutputStream extends FilterOutputStream {
+
+	private final LongAdder count;
+
+	CountingOutputStream(OutputStream out, LongAdder count) {
+		super(out);
+		this.count = count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		count.increment();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		count.add(len);
+	}
+}
+
+/**
+ * Fails with 413 Request Entity Too Large once more than a given number of bytes are read.
+ */
+class LimitedInputStream extends FilterInputStream {
+
+	private final long limit;
+	private long count;
+
+	LimitedInputStream(InputStream in, long limit) {
+		super(in);
+		this.limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0)
+			counted(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0)
+			counted(n);
+		return n;
+	}
+
+	private void counted(int n) {
+		count += n;
+		if (count > limit)
+			throw new WebApplicationException(String.format("body inflates to more than %d bytes", limit), Response.Status.REQUEST_ENTITY_TOO_LARGE);
+	}
+}
+
+class CountingInputStream extends FilterInputStream {
+
+	private final LongAdder count;
+
+	CountingInputStream(InputStream in, LongAdder count) {
+		super(in);
+		this.count = count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0)
+			count.increment();
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0)
+			count.add(n);
+		return n;
+	}
+}
@@ -0,0 +1,104 @@
+package tp1.util;
+
+import java.util.function.Supplier;
+
+/**
+ *
+ * The time left to serve a request, kept per thread while the request is served. It is set by the resource that
+ * receives a values request and travels to other servers in the Sheets-Deadline request header, as the number of
+ * milliseconds left, so that servers computing imports for the request stop once its caller has given up.
+ *
+ * Requests arriving without the header get sheets.requests.budget milliseconds; requests with it get the smaller
+ * of the two.
+ *
+ */
+public class Deadline {
+
+	public static final String HEADER = "Sheets-Deadline";
+
+	public static final String BUDGET_PROPERTY = "sheets.requests.budget";
+
+	private static final long DEFAULT_BUDGET = 30000;
+
+	private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+	private static final ThreadLocal<Deadline> current = ThreadLocal.withInitial(() -> NONE);
+
+	// System.nanoTime() at which the time runs out
+	private final long expiresAt;
+
+	private Deadline(long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * @return the deadline of the request served by the calling thread; if none was set, it never expires.
+	 */
+	public static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Runs the supplier with the given deadline as the deadline of the calling thread.
+	 */
+	public static <T> T with(Deadline deadline, Supplier<T> supplier) {
+		Deadline previous = current.get();
+		current.set(deadline);
+		try {
+			return supplier.get();
+		} finally {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Creates the deadline of a request, given the value of its Sheets-Deadline header.
+	 * @param budget - the value of the header, possibly null.
+	 */
+	public static Deadline fromHeader(String budget) {
+		long millis = Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET);
+		try {
+			if (budget != null)
+				millis = Math.min(millis, Long.parseLong(budget.trim()));
+		} catch (NumberFormatException x) {
+		}
+		return in(millis);
+	}
+
+	/**
+	 * @return the deadline the given number of milliseconds from now.
+	 */
+	public static Deadline in(long millis) {
+		return new Deadline(System.nanoTime() + Math.max(0, millis) * 1_000_000);
+	}
+
+	public boolean isSet() {
+		return this != NONE;
+	}
+
+	public boolean expired() {
+		return isSet() && System.nanoTime() - expiresAt >= 0;
+	}
+
+	/**
+	 * @return the milliseconds left, Long.MAX_VALUE if no deadline is set.
+	 */
+	public long remaining() {
+		return isSet() ? Math.max(0, (expiresAt - System.nanoTime()) / 1_000_000) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @param millis - a timeout, in milliseconds.
+	 * @return the timeout, shortened to the time left if needed.
+	 */
+	public long cap(long millis) {
+		return Math.min(millis, remaining());
+	}
+
+	/**
+	 * @return the value of the Sheets-Deadline header.
+	 */
+	public String header() {
+		return Long.toString(remaining());
+	}
+}
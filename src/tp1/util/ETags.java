@@ -0,0 +1,97 @@
+package tp1.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ *
+ * Utility class to compute the entity tags sent in the ETag and If-None-Match headers.
+ *
+ * The tags are weak: the same values are sent as JSON or as binary grids, compressed or not, and all those
+ * representations share the tag of the values. Responses say which headers chose the representation in Vary.
+ *
+ */
+public class ETags {
+
+	private ETags() {
+	}
+
+	/**
+	 * Computes a weak entity tag for a 2D array of cell values, derived from its contents.
+	 * @param values - the cell values.
+	 * @return the quoted entity tag.
+	 */
+	public static String of(String[][] values) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putInt(values.length);
+		for (String[] row : values) {
+			hasher.putInt(row.length);
+			for (String value : row) {
+				if (value == null)
+					hasher.putInt(-1);
+				else
+					hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+			}
+		}
+		return quote(hasher.hash().toString());
+	}
+
+	/**
+	 * Computes a weak entity tag for a resource from its version, without looking at its contents.
+	 * @param version - the version of the resource, which changes whenever its contents do.
+	 * @return the quoted entity tag.
+	 */
+	public static String of(long version) {
+		return quote(Long.toString(version));
+	}
+
+	/**
+	 * Computes a weak entity tag for computed values from the version of their spreadsheet and whatever else
+	 * they depend on, without looking at the values themselves.
+	 * @param version - the version of the spreadsheet.
+	 * @param period - the import period the values belong to, 0 if the spreadsheet has no imports.
+	 * @param remoteVersions - the versions of the remote domains the values were computed with.
+	 * @param window - the range of the values returned, null if all of them are.
+	 * @param importPath - the key of the import path the values were computed for, see ImportPath.key().
+	 * @return the quoted entity tag.
+	 */
+	public static String of(long version, long period, Map<String, Long> remoteVersions, CellRange window, String importPath) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putLong(period);
+		hasher.putInt(importPath.length()).putString(importPath, StandardCharsets.UTF_8);
+		if (window != null)
+			hasher.putInt(window.topRow).putInt(window.topCol).putInt(window.botRow).putInt(window.botCol);
+		for (Map.Entry<String, Long> entry : new TreeMap<>(remoteVersions).entrySet())
+			hasher.putInt(entry.getKey().length()).putString(entry.getKey(), StandardCharsets.UTF_8).putLong(entry.getValue());
+		return quote(version + "-" + hasher.hash().toString().substring(0, 16));
+	}
+
+	/**
+	 * Tests if an If-None-Match header matches the given entity tag, with the weak comparison of If-None-Match.
+	 * @param ifNoneMatch - the value of the header, possibly null.
+	 * @param etag - the entity tag.
+	 * @return true if the header lists the tag, weak or strong, or is "*".
+	 */
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(","))
+			if (opaque(tag.trim()).equals(opaque(etag)) || tag.trim().equals("*"))
+				return true;
+		return false;
+	}
+
+	private static String opaque(String etag) {
+		return etag.startsWith(WEAK) ? etag.substring(WEAK.length()) : etag;
+	}
+
+	private static String quote(String tag) {
+		return WEAK + '"' + tag + '"';
+	}
+
+	private static final String WEAK = "W/";
+}
@@ -0,0 +1,131 @@
+package tp1.util;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ *
+ * The chain of spreadsheets whose imports led to the current request, as a list of sheet URLs plus the number of
+ * hops taken. It travels between servers in the Sheets-Import-Path and Sheets-Import-Hops request headers and is
+ * kept per thread while a request is served.
+ *
+ * An import of a sheet already in the path closes a cycle, and an import past sheets.imports.maxHops hops is too
+ * deep: both fail at once instead of being forwarded to the remote domain.
+ *
+ */
+public class ImportPath {
+
+	public static final String PATH_HEADER = "Sheets-Import-Path";
+	public static final String HOPS_HEADER = "Sheets-Import-Hops";
+
+	public static final String MAX_HOPS_PROPERTY = "sheets.imports.maxHops";
+
+	private static final int DEFAULT_MAX_HOPS = 8;
+
+	private static final ImportPath EMPTY = new ImportPath(Collections.emptyList(), 0);
+
+	private static final ThreadLocal<ImportPath> current = ThreadLocal.withInitial(() -> EMPTY);
+
+	private final List<String> sheetURLs;
+	private final int hops;
+
+	private ImportPath(List<String> sheetURLs, int hops) {
+		this.sheetURLs = sheetURLs;
+		this.hops = hops;
+	}
+
+	/**
+	 * @return the path of the request served by the calling thread, empty if it was not caused by an import.
+	 */
+	public static ImportPath current() {
+		return current.get();
+	}
+
+	/**
+	 * Runs the supplier with the given path as the path of the calling thread.
+	 */
+	public static <T> T with(ImportPath path, Supplier<T> supplier) {
+		ImportPath previous = current.get();
+		current.set(path);
+		try {
+			return supplier.get();
+		} finally {
+			current.set(previous);
+		}
+	}
+
+	/**
+	 * Parses the path received in the request headers.
+	 * @param path - the value of the Sheets-Import-Path header, possibly null.
+	 * @param hops - the value of the Sheets-Import-Hops header, possibly null.
+	 */
+	public static ImportPath fromHeaders(String path, String hops) {
+		if (path == null || path.isEmpty())
+			return EMPTY;
+
+		List<String> sheetURLs = new ArrayList<>();
+		for (String sheetURL : path.split(","))
+			sheetURLs.add(URLDecoder.decode(sheetURL, StandardCharsets.UTF_8));
+
+		int n = sheetURLs.size();
+		try {
+			n = Math.max(n, hops == null ? 0 : Integer.parseInt(hops.trim()));
+		} catch (NumberFormatException x) {
+		}
+		return new ImportPath(sheetURLs, n);
+	}
+
+	/**
+	 * @return the path extended with the sheet about to import a range.
+	 */
+	public ImportPath through(String sheetURL) {
+		List<String> sheetURLs = new ArrayList<>(this.sheetURLs);
+		sheetURLs.add(sheetURL);
+		return new ImportPath(sheetURLs, hops + 1);
+	}
+
+	public boolean isEmpty() {
+		return sheetURLs.isEmpty();
+	}
+
+	public boolean visits(String sheetURL) {
+		return sheetURLs.contains(sheetURL);
+	}
+
+	public boolean tooDeep() {
+		return hops > Integer.getInteger(MAX_HOPS_PROPERTY, DEFAULT_MAX_HOPS);
+	}
+
+	public int hops() {
+		return hops;
+	}
+
+	/**
+	 * Results computed for a request may depend on its path, since imports that would close a cycle or go too deep
+	 * fail; caches keep them apart by this key.
+	 * @return a string that differs between paths, empty for the empty path.
+	 */
+	public String key() {
+		return isEmpty() ? "" : hops + ":" + pathHeader();
+	}
+
+	/**
+	 * @return the value of the Sheets-Import-Path header.
+	 */
+	public String pathHeader() {
+		List<String> encoded = new ArrayList<>(sheetURLs.size());
+		for (String sheetURL : sheetURLs)
+			encoded.add(URLEncoder.encode(sheetURL, StandardCharsets.UTF_8));
+		return String.join(",", encoded);
+	}
+
+	@Override
+	public String toString() {
+		return String.join(" -> ", sheetURLs);
+	}
+}
@@ -0,0 +1,46 @@
+package tp1.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+/**
+ *
+ * The secret shared by the servers of a deployment, which they present to each other on the operations that only
+ * servers may call. It is the sheets.secret system property, set to the same value on every server. There is no
+ * default: on servers started without it, the operations that need it are disabled, and callers presenting any
+ * secret are refused.
+ *
+ */
+public class ServerSecret {
+
+	public static final String PROPERTY = "sheets.secret";
+
+	private static Logger Log = Logger.getLogger(ServerSecret.class.getName());
+
+	static {
+		if (get() == null)
+			Log.warning(PROPERTY + " is not set: the operations reserved to servers are disabled");
+	}
+
+	private ServerSecret() {
+	}
+
+	/**
+	 * @return the secret of the servers, or null if it is not set.
+	 */
+	public static String get() {
+		String secret = System.getProperty(PROPERTY);
+		return secret == null || secret.isEmpty() ? null : secret;
+	}
+
+	/**
+	 * @param secret - the secret presented by the caller, possibly null.
+	 * @return true if it is the secret of the servers, which is never the case when it is not set; the comparison
+	 * takes the same time wherever they differ.
+	 */
+	public static boolean matches(String secret) {
+		String expected = get();
+		return expected != null && secret != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+	}
+}
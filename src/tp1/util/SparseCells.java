@@ -0,0 +1,401 @@
+package tp1.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import tp1.api.engine.AbstractSpreadsheet.CellVisitor;
+import tp1.api.engine.CellType;
+
+/**
+ *
+ * Sparse store for the raw values of a spreadsheet. Only the cells that were given a value take up space:
+ * each row keeps its populated columns sorted, next to their raw values and the type and parsed value
+ * of each one (see CellType), which are computed when the cell is written.
+ *
+ * Rows are replaced as a whole on every write, so readers always see a consistent row without locking, and
+ * copies of the store share the rows neither of them has written since: copy() only copies the array of rows.
+ * The number of formula cells, and of imports among them, is kept up to date on every write, so sheets holding
+ * only literals, or no imports, are recognized without looking at their cells.
+ *
+ * Every write is also recorded in a change log, shared by the copies of the store as they share their rows, so that
+ * the cells that differ between two versions of the store are found without comparing them (see forEachChange()).
+ * Only the last MAX_CHANGES writes are kept; versions further apart are not compared.
+ *
+ */
+public class SparseCells {
+
+	// writes kept in the change log
+	static final int MAX_CHANGES = 4096;
+
+	private static final Row EMPTY_ROW = new Row(new int[0], new String[0], new CellType[0], new Object[0]);
+
+	private static final AtomicLong serials = new AtomicLong();
+
+	private final int rows, cols;
+	private final Row[] cells;
+	private volatile int formulas, imports;
+	private volatile Change changes;
+
+	public SparseCells(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.cells = new Row[rows];
+		Arrays.fill(cells, EMPTY_ROW);
+		this.changes = new Change(-1, -1, null);
+	}
+
+	private SparseCells(SparseCells other) {
+		this.rows = other.rows;
+		this.cols = other.cols;
+		this.cells = other.cells.clone();
+		this.formulas = other.formulas;
+		this.imports = other.imports;
+		this.changes = other.changes;
+	}
+
+	/**
+	 * Creates the store holding the non null values of the given 2D array of raw values.
+	 */
+	public static SparseCells of(String[][] rawValues) {
+		int cols = 0;
+		for (String[] row : rawValues)
+			cols = Math.max(cols, row == null ? 0 : row.length);
+
+		var sparse = new SparseCells(rawValues.length, cols);
+		for (int row = 0; row < rawValues.length; row++) {
+			if (rawValues[row] == null)
+				continue;
+
+			int n = 0;
+			for (String value : rawValues[row])
+				if (value != null)
+					n++;
+			if (n == 0)
+				continue;
+
+			var r = new Row(new int[n], new String[n], new CellType[n], new Object[n]);
+			for (int col = 0, i = 0; col < rawValues[row].length; col++)
+				if (rawValues[row][col] != null)
+					r.set(i++, col, rawValues[row][col]);
+			for (CellType type : r.types) {
+				if (type.isFormula())
+					sparse.formulas++;
+				if (type == CellType.IMPORTRANGE)
+					sparse.imports++;
+			}
+			sparse.cells[row] = r;
+		}
+		return sparse;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public int cols() {
+		return cols;
+	}
+
+	/**
+	 * @return the number of cells holding a formula or an import.
+	 */
+	public int formulas() {
+		return formulas;
+	}
+
+	/**
+	 * @return the number of cells holding an import.
+	 */
+	public int imports() {
+		return imports;
+	}
+
+	/**
+	 * @return a store with the same cells, that can be written without changing this one.
+	 */
+	public SparseCells copy() {
+		return new SparseCells(this);
+	}
+
+	/**
+	 * @return an object that stays the same, in this store and in its copies, until one of them is written, to be
+	 * given to forEachChange() on this store or its copies.
+	 */
+	public Object version() {
+		return changes;
+	}
+
+	/**
+	 * Visits the cells written since the given version, in this store or in the store the version was taken from,
+	 * since the last version the two stores share. A cell may be visited more than once.
+	 * @param since - the version of this store or of a copy, or of a store it was copied from.
+	 * @return false if the stores do not share a version among the changes kept, and the cells that differ are
+	 * unknown; the cells visited until then are only some of them.
+	 */
+	public boolean forEachChange(Object since, CellVisitor visitor) {
+		if (!(since instanceof Change))
+			return false;
+
+		// serials decrease along each log, and the logs meet at the last version they share
+		Change mine = changes, theirs = (Change) since;
+		while (mine != theirs) {
+			if (mine.serial > theirs.serial) {
+				if (mine.next == null)
+					return false;
+				visitor.cell(mine.row, mine.col);
+				mine = mine.next;
+			} else {
+				if (theirs.next == null)
+					return false;
+				visitor.cell(theirs.row, theirs.col);
+				theirs = theirs.next;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the raw value of the cell, or null if it was never written.
+	 */
+	public String get(int row, int col) {
+		checkBounds(row, col);
+		var r = cells[row];
+		int i = Arrays.binarySearch(r.cols, col);
+		return i < 0 ? null : r.values[i];
+	}
+
+	public CellType type(int row, int col) {
+		checkBounds(row, col);
+		var r = cells[row];
+		int i = Arrays.binarySearch(r.cols, col);
+		return i < 0 ? CellType.EMPTY : r.types[i];
+	}
+
+	public Object literal(int row, int col) {
+		checkBounds(row, col);
+		var r = cells[row];
+		int i = Arrays.binarySearch(r.cols, col);
+		return i < 0 ? CellType.EMPTY.literal(null) : r.literals[i];
+	}
+
+	/**
+	 * Writes the raw value of a cell; a null value clears the cell.
+	 */
+	public void set(int row, int col, String value) {
+		checkBounds(row, col);
+		var r = cells[row];
+		int i = Arrays.binarySearch(r.cols, col);
+
+		if (i >= 0 && r.types[i].isFormula())
+			formulas--;
+		if (i >= 0 && r.types[i] == CellType.IMPORTRANGE)
+			imports--;
+
+		if (i >= 0 && value != null) {
+			var copy = r.copy(r.cols.length, 0, 0);
+			copy.set(i, col, value);
+			cells[row] = copy;
+		} else if (i >= 0) {
+			cells[row] = r.cols.length == 1 ? EMPTY_ROW : r.without(i);
+		} else if (value != null) {
+			i = -i - 1;
+			var copy = r.copy(r.cols.length + 1, i, 1);
+			copy.set(i, col, value);
+			cells[row] = copy;
+		}
+
+		if (value != null && cells[row].types[i].isFormula())
+			formulas++;
+		if (value != null && cells[row].types[i] == CellType.IMPORTRANGE)
+			imports++;
+
+		// past MAX_CHANGES, the log starts over, and this version is not compared with those before it
+		var last = changes;
+		changes = new Change(row, col, last.length < MAX_CHANGES ? last : new Change(-1, -1, null));
+	}
+
+	/**
+	 * Visits the populated cells, row by row.
+	 */
+	public void forEachCell(CellVisitor visitor) {
+		for (int row = 0; row < rows; row++)
+			for (int col : cells[row].cols)
+				visitor.cell(row, col);
+	}
+
+	/**
+	 * Visits the populated cells inside the given range, row by row.
+	 */
+	public void forEachCell(CellRange range, CellVisitor visitor) {
+		for (int row = Math.max(range.topRow, 0); row <= Math.min(range.botRow, rows - 1); row++) {
+			var r = cells[row];
+			int i = Arrays.binarySearch(r.cols, range.topCol);
+			for (i = i < 0 ? -i - 1 : i; i < r.cols.length && r.cols[i] <= range.botCol; i++)
+				visitor.cell(row, r.cols[i]);
+		}
+	}
+
+	/**
+	 * @return the raw values of a row, with null in the cells never written.
+	 */
+	public String[] row(int row) {
+		if (row < 0 || row >= rows)
+			throw new ArrayIndexOutOfBoundsException(String.format("row %d outside %d x %d", row, rows, cols));
+		var values = new String[cols];
+		var r = cells[row];
+		for (int i = 0; i < r.cols.length; i++)
+			values[r.cols[i]] = r.values[i];
+		return values;
+	}
+
+	/**
+	 * @return the dense 2D array of raw values, with null in the cells never written.
+	 */
+	public String[][] toArray() {
+		var values = new String[rows][cols];
+		for (int row = 0; row < rows; row++) {
+			var r = cells[row];
+			for (int i = 0; i < r.cols.length; i++)
+				values[row][r.cols[i]] = r.values[i];
+		}
+		return values;
+	}
+
+	private void checkBounds(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			throw new ArrayIndexOutOfBoundsException(String.format("(%d, %d) outside %d x %d", row, col, rows, cols));
+	}
+
+	private static class Row {
+		final int[] cols;
+		final String[] values;
+		final CellType[] types;
+		final Object[] literals;
+
+		Row(int[] cols, String[] values, CellType[] types, Object[] literals) {
+			this.cols = cols;
+			this.values = values;
+			this.types = types;
+			this.literals = literals;
+		}
+
+		void set(int i, int col, String value) {
+			cols[i] = col;
+			values[i] = value;
+			types[i] = CellType.of(value);
+			literals[i] = types[i].literal(value);
+		}
+
+		/**
+		 * Copies this row into a row of the given length, leaving a gap of the given size at index.
+		 */
+		Row copy(int length, int index, int gap) {
+			var r = new Row(new int[length], new String[length], new CellType[length], new Object[length]);
+			int n = cols.length;
+			if (gap == 0)
+				index = n;
+			System.arraycopy(cols, 0, r.cols, 0, index);
+			System.arraycopy(values, 0, r.values, 0, index);
+			System.arraycopy(types, 0, r.types, 0, index);
+			System.arraycopy(literals, 0, r.literals, 0, index);
+			System.arraycopy(cols, index, r.cols, index + gap, n - index);
+			System.arraycopy(values, index, r.values, index + gap, n - index);
+			System.arraycopy(types, index, r.types, index + gap, n - index);
+			System.arraycopy(literals, index, r.literals, index + gap, n - index);
+			return r;
+		}
+
+		Row without(int index) {
+			int n = cols.length - 1;
+			var r = new Row(new int[n], new String[n], new CellType[n], new Object[n]);
+			System.arraycopy(cols, 0, r.cols, 0, index);
+			System.arraycopy(values, 0, r.values, 0, index);
+			System.arraycopy(types, 0, r.types, 0, index);
+			System.arraycopy(literals, 0, r.literals, 0, index);
+			System.arraycopy(cols, index + 1, r.cols, index, n - index);
+			System.arraycopy(values, index + 1, r.values, index, n - index);
+			System.arraycopy(types, index + 1, r.types, index, n - index);
+			System.arraycopy(literals, index + 1, r.literals, index, n - index);
+			return r;
+		}
+	}
+
+	/**
+	 * A write to a cell, in the change log of the stores, after the writes before it; the oldest write kept has
+	 * no next one, and no cell, and stands for all the writes before it, which are unknown.
+	 */
+	private static class Change {
+		final long serial;
+		final int row, col, length;
+		final Change next;
+
+		Change(int row, int col, Change next) {
+			this.serial = serials.incrementAndGet();
+			this.row = row;
+			this.col = col;
+			this.next = next;
+			this.length = next == null ? 0 : next.length + 1;
+		}
+	}
+
+	/**
+	 * Reads and writes the store as the dense 2D array of raw values, so the JSON form of a spreadsheet
+	 * does not depend on how its cells are stored.
+	 */
+	public static class GsonAdapter extends TypeAdapter<SparseCells> {
+
+		@Override
+		public void write(JsonWriter out, SparseCells cells) throws IOException {
+			if (cells == null) {
+				out.nullValue();
+				return;
+			}
+			out.beginArray();
+			for (int row = 0; row < cells.rows; row++) {
+				var r = cells.cells[row];
+				out.beginArray();
+				for (int col = 0, i = 0; col < cells.cols; col++) {
+					if (i < r.cols.length && r.cols[i] == col)
+						out.value(r.values[i++]);
+					else
+						out.nullValue();
+				}
+				out.endArray();
+			}
+			out.endArray();
+		}
+
+		@Override
+		public SparseCells read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			List<String[]> rows = new ArrayList<>();
+			in.beginArray();
+			while (in.hasNext()) {
+				List<String> row = new ArrayList<>();
+				in.beginArray();
+				while (in.hasNext()) {
+					if (in.peek() == JsonToken.NULL) {
+						in.nextNull();
+						row.add(null);
+					} else
+						row.add(in.nextString());
+				}
+				in.endArray();
+				rows.add(row.toArray(new String[0]));
+			}
+			in.endArray();
+			return of(rows.toArray(new String[0][]));
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package tp1.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Periodic log line with the counters of the caches and of the compression of the server, so that their hit rates
+ * and savings can be followed while it runs. Each counter is registered by the class holding it, and the line is
+ * logged every sheets.stats.period milliseconds once the first one is registered; 0 turns it off.
+ *
+ */
+public class Stats {
+
+	public static final String PERIOD_PROPERTY = "sheets.stats.period";
+
+	private static final long DEFAULT_PERIOD = 60_000;
+
+	private static final Logger Log = Logger.getLogger(Stats.class.getName());
+
+	private static final Map<String, Supplier<?>> counters = new TreeMap<>();
+
+	private static ScheduledExecutorService reporter;
+
+	private Stats() {
+	}
+
+	/**
+	 * Registers a counter, replacing any registered with the same name.
+	 * @param name - the name the counter is logged with.
+	 * @param counter - gives the current value of the counter, logged with toString().
+	 */
+	public static synchronized void register(String name, Supplier<?> counter) {
+		counters.put(name, counter);
+
+		long period = Long.getLong(PERIOD_PROPERTY, DEFAULT_PERIOD);
+		if (reporter != null || period <= 0)
+			return;
+
+		reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "stats");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> {
+			try {
+				Log.info(report());
+			} catch (RuntimeException x) {
+				// a failed report must not cancel the next ones
+				Log.warning("stats: " + x);
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the current values of all the registered counters, in a single line.
+	 */
+	public static synchronized String report() {
+		StringBuilder line = new StringBuilder("stats:");
+		for (Map.Entry<String, Supplier<?>> counter : counters.entrySet())
+			line.append(' ').append(counter.getKey()).append('=').append(counter.getValue().get());
+		return line.toString();
+	}
+}
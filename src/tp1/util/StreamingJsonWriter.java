@@ -0,0 +1,129 @@
+package tp1.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+import tp1.api.Spreadsheet;
+
+/**
+ *
+ * Writes grids of cells as JSON one cell at a time, with a Jackson JsonGenerator, instead of having the whole
+ * document built in memory: computed values (String[][] or CellValues, converted to text as they are written)
+ * and spreadsheets, whose raw values are taken from the sparse store one row at a time.
+ *
+ * The output is the same JSON the default Jackson provider produces for these types. Its size is not known in
+ * advance, so responses larger than Jersey's outbound buffer are sent with chunked transfer encoding; the
+ * generator hands its buffer to the connection whenever it fills up, so the memory used per response does not
+ * grow with the size of the grid.
+ *
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class StreamingJsonWriter implements MessageBodyWriter<Object> {
+
+	private static final JsonFactory factory = new JsonFactory();
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == String[][].class || CellValues.class.isAssignableFrom(type) || Spreadsheet.class.isAssignableFrom(type);
+	}
+
+	@Override
+	public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+		JsonGenerator json = factory.createGenerator(entityStream, JsonEncoding.UTF8);
+		json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		if (entity instanceof CellValues)
+			write(json, (CellValues) entity);
+		else if (entity instanceof Spreadsheet)
+			write(json, (Spreadsheet) entity);
+		else
+			write(json, (String[][]) entity);
+
+		json.close();
+	}
+
+	private static void write(JsonGenerator json, CellValues values) throws IOException {
+		json.writeStartArray();
+		for (int row = 0; row < values.rows(); row++) {
+			json.writeStartArray();
+			for (int col = 0; col < values.cols(); col++)
+				json.writeString(values.text(row, col));
+			json.writeEndArray();
+		}
+		json.writeEndArray();
+	}
+
+	private static void write(JsonGenerator json, String[][] values) throws IOException {
+		json.writeStartArray();
+		for (String[] row : values)
+			write(json, row);
+		json.writeEndArray();
+	}
+
+	private static void write(JsonGenerator json, Spreadsheet sheet) throws IOException {
+		json.writeStartObject();
+		writeField(json, "sheetId", sheet.getSheetId());
+		writeField(json, "owner", sheet.getOwner());
+		writeField(json, "sheetURL", sheet.getSheetURL());
+		json.writeNumberField("rows", sheet.getRows());
+		json.writeNumberField("columns", sheet.getColumns());
+
+		json.writeFieldName("sharedWith");
+		if (sheet.getSharedWith() == null)
+			json.writeNull();
+		else {
+			json.writeStartArray();
+			for (String user : sheet.getSharedWith())
+				json.writeString(user);
+			json.writeEndArray();
+		}
+
+		json.writeFieldName("rawValues");
+		int rows = sheet.extractRawRows();
+		if (rows < 0)
+			json.writeNull();
+		else {
+			json.writeStartArray();
+			for (int row = 0; row < rows; row++)
+				write(json, sheet.extractRowRawValues(row));
+			json.writeEndArray();
+		}
+		json.writeEndObject();
+	}
+
+	private static void write(JsonGenerator json, String[] row) throws IOException {
+		if (row == null) {
+			json.writeNull();
+			return;
+		}
+		json.writeStartArray();
+		for (String value : row) {
+			if (value == null)
+				json.writeNull();
+			else
+				json.writeString(value);
+		}
+		json.writeEndArray();
+	}
+
+	private static void writeField(JsonGenerator json, String name, String value) throws IOException {
+		json.writeFieldName(name);
+		if (value == null)
+			json.writeNull();
+		else
+			json.writeString(value);
+	}
+}
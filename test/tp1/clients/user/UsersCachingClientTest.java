@@ -0,0 +1,86 @@
+package tp1.clients.user;
+
+import org.junit.jupiter.api.Test;
+import tp1.api.User;
+import tp1.api.service.util.Result;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsersCachingClientTest {
+
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final String userId = "user" + ids.incrementAndGet() + "@test";
+    private final CountingClient users = new CountingClient(userId, "secret");
+    private final UsersClient client = new UsersCachingClient(users);
+
+    @Test
+    void acceptedCredentialsAreCachedWithoutThePassword() {
+        assertTrue(client.getUser(userId, "secret").isOK());
+        Result<User> cached = client.getUser(userId, "secret");
+        assertTrue(cached.isOK());
+        assertNull(cached.value().getPassword());
+        assertEquals(userId, cached.value().getUserId());
+        assertEquals(1, users.calls);
+    }
+
+    @Test
+    void rejectedCredentialsAreCachedApart() {
+        assertEquals(Result.ErrorCode.FORBIDDEN, client.getUser(userId, "wrong").error());
+        assertEquals(Result.ErrorCode.FORBIDDEN, client.getUser(userId, "wrong").error());
+        assertEquals(1, users.calls);
+
+        assertTrue(client.getUser(userId, "secret").isOK());
+        assertEquals(2, users.calls);
+    }
+
+    @Test
+    void otherFailuresAreNotCached() {
+        users.available = false;
+        assertEquals(Result.ErrorCode.INTERNAL_ERROR, client.getUser(userId, "secret").error());
+        users.available = true;
+        assertTrue(client.getUser(userId, "secret").isOK());
+        assertEquals(2, users.calls);
+    }
+
+    @Test
+    void changedUsersAreCheckedAgain() {
+        assertTrue(client.getUser(userId, "secret").isOK());
+        users.password = "changed";
+        UsersCachingClient.invalidate(userId);
+
+        assertEquals(Result.ErrorCode.FORBIDDEN, client.getUser(userId, "secret").error());
+        assertTrue(client.getUser(userId, "changed").isOK());
+        assertEquals(3, users.calls);
+    }
+
+    /**
+     * The users service, holding a single user.
+     */
+    static class CountingClient implements UsersClient {
+
+        final String userId;
+        String password;
+        boolean available = true;
+        int calls;
+
+        CountingClient(String userId, String password) {
+            this.userId = userId;
+            this.password = password;
+        }
+
+        @Override
+        public Result<User> getUser(String userId, String password) {
+            calls++;
+            if (!available)
+                return Result.error(Result.ErrorCode.INTERNAL_ERROR);
+            if (!this.userId.equals(userId))
+                return Result.error(Result.ErrorCode.NOT_FOUND);
+            if (!this.password.equals(password))
+                return Result.error(Result.ErrorCode.FORBIDDEN);
+            return Result.ok(new User(userId, "Full Name", "user@test", password));
+        }
+    }
+}
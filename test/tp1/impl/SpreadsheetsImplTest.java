@@ -0,0 +1,187 @@
+package tp1.impl;
+
+import org.junit.jupiter.api.Test;
+import tp1.api.Spreadsheet;
+import tp1.api.User;
+import tp1.api.service.util.Result;
+import tp1.clients.user.UsersClient;
+import tp1.util.Cell;
+import tp1.util.ServerSecret;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpreadsheetsImplTest {
+
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private static final String OWNER = "owner@domain", PASSWORD = "password";
+
+    private final SpreadsheetsImpl impl = new SpreadsheetsImpl("domain", () -> users());
+
+    @Test
+    void bulkUpdatesWriteAllTheCells() {
+        String sheetId = create(2, 2);
+        Map<String, String> cells = new LinkedHashMap<>();
+        cells.put("A1", "1");
+        cells.put("B1", "2");
+        cells.put("B2", "=A1+B1");
+
+        assertTrue(impl.updateCells(sheetId, cells, OWNER, PASSWORD).isOK());
+        assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "", "3.0" } }, values(sheetId));
+    }
+
+    @Test
+    void bulkUpdatesWithAnInvalidCellWriteNone() {
+        String sheetId = create(2, 2);
+        Map<String, String> cells = new LinkedHashMap<>();
+        cells.put("A1", "1");
+        cells.put("C1", "2");
+        assertEquals(Result.ErrorCode.BAD_REQUEST, impl.updateCells(sheetId, cells, OWNER, PASSWORD).error());
+
+        cells.remove("C1");
+        cells.put("B1!", "2");
+        assertEquals(Result.ErrorCode.BAD_REQUEST, impl.updateCells(sheetId, cells, OWNER, PASSWORD).error());
+
+        assertArrayEquals(new String[2][2], impl.getSpreadsheet(sheetId, OWNER, PASSWORD).value().getRawValues());
+    }
+
+    @Test
+    void bulkUpdatesAreSeenWhole() throws InterruptedException {
+        String sheetId = create(1, 3);
+        assertTrue(impl.updateCell(sheetId, "C1", "=A1-B1", OWNER, PASSWORD).isOK());
+
+        AtomicReference<String> torn = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++)
+                impl.updateCells(sheetId, Map.of("A1", Integer.toString(i), "B1", Integer.toString(i)), OWNER, PASSWORD);
+        });
+        writer.start();
+        while (writer.isAlive() && torn.get() == null) {
+            String[] raw = impl.getSpreadsheet(sheetId, OWNER, PASSWORD).value().getRawValues()[0];
+            if (raw[0] != null && !raw[0].equals(raw[1]))
+                torn.set(raw[0] + " " + raw[1]);
+            String difference = values(sheetId)[0][2];
+            if (!difference.equals("0.0"))
+                torn.set("A1-B1 = " + difference);
+        }
+        writer.join();
+        assertNull(torn.get());
+    }
+
+    @Test
+    void concurrentWritesAreAllKept() throws InterruptedException {
+        String first = create(8, 8), second = create(8, 8);
+        List<Thread> writers = new ArrayList<>();
+        for (int col = 0; col < 8; col++) {
+            int c = col;
+            writers.add(new Thread(() -> {
+                for (int row = 0; row < 8; row++) {
+                    String cell = Cell.Indices2CellId(row, c);
+                    impl.updateCell(first, cell, cell, OWNER, PASSWORD);
+                    impl.updateCell(second, cell, cell, OWNER, PASSWORD);
+                }
+            }));
+        }
+        writers.forEach(Thread::start);
+        for (Thread writer : writers)
+            writer.join();
+
+        for (String sheetId : List.of(first, second)) {
+            String[][] raw = impl.getSpreadsheet(sheetId, OWNER, PASSWORD).value().getRawValues();
+            for (int row = 0; row < 8; row++)
+                for (int col = 0; col < 8; col++)
+                    assertEquals(Cell.Indices2CellId(row, col), raw[row][col]);
+        }
+    }
+
+    @Test
+    void readSheetsAreNotChangedByLaterWrites() {
+        String sheetId = create(1, 2);
+        assertTrue(impl.updateCell(sheetId, "A1", "1", OWNER, PASSWORD).isOK());
+        Spreadsheet before = impl.getSpreadsheet(sheetId, OWNER, PASSWORD).value();
+
+        assertTrue(impl.updateCell(sheetId, "A1", "2", OWNER, PASSWORD).isOK());
+        assertTrue(impl.updateCells(sheetId, Map.of("B1", "3"), OWNER, PASSWORD).isOK());
+        assertArrayEquals(new String[][] { { "1", null } }, before.getRawValues());
+        assertArrayEquals(new String[][] { { "2", "3" } }, impl.getSpreadsheet(sheetId, OWNER, PASSWORD).value().getRawValues());
+    }
+
+    @Test
+    void readsDuringWritesSeeOneVersion() throws InterruptedException {
+        String sheetId = create(1, 3);
+        assertTrue(impl.updateCells(sheetId, Map.of("A1", "0", "B1", "0", "C1", "=A1-B1"), OWNER, PASSWORD).isOK());
+
+        AtomicReference<String> torn = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 2000; i++) {
+                impl.updateCell(sheetId, "A1", Integer.toString(i), OWNER, PASSWORD);
+                impl.updateCell(sheetId, "B1", Integer.toString(i), OWNER, PASSWORD);
+            }
+        });
+        writer.start();
+        while (writer.isAlive() && torn.get() == null) {
+            // B1 is written after A1, so every version has A1 equal to B1 or one ahead of it
+            Spreadsheet sheet = impl.getSpreadsheet(sheetId, OWNER, PASSWORD).value();
+            int a1 = Integer.parseInt(sheet.getRawValues()[0][0]), b1 = Integer.parseInt(sheet.getRawValues()[0][1]);
+            if (a1 - b1 != 0 && a1 - b1 != 1)
+                torn.set("A1 = " + a1 + ", B1 = " + b1);
+            String difference = values(sheetId)[0][2];
+            if (!difference.equals("0.0") && !difference.equals("1.0"))
+                torn.set("A1-B1 = " + difference);
+            if (!sheet.getRawValues()[0][0].equals(Integer.toString(a1)))
+                torn.set("a read sheet changed");
+        }
+        writer.join();
+        assertNull(torn.get());
+        assertEquals("0.0", values(sheetId)[0][2]);
+    }
+
+    @Test
+    void credentialsAreOnlyDroppedWithTheSecret() {
+        System.clearProperty(ServerSecret.PROPERTY);
+        assertEquals(Result.ErrorCode.FORBIDDEN, impl.invalidateCredentials(OWNER, null).error());
+        assertEquals(Result.ErrorCode.FORBIDDEN, impl.invalidateCredentials(OWNER, "").error());
+
+        System.setProperty(ServerSecret.PROPERTY, "the secret");
+        try {
+            assertEquals(Result.ErrorCode.FORBIDDEN, impl.invalidateCredentials(OWNER, "another secret").error());
+            assertTrue(impl.invalidateCredentials(OWNER, "the secret").isOK());
+        } finally {
+            System.clearProperty(ServerSecret.PROPERTY);
+        }
+    }
+
+    String create(int rows, int cols) {
+        String sheetId = "sheet" + ids.incrementAndGet();
+        var sheet = new Spreadsheet(sheetId, OWNER, null, rows, cols, new HashSet<>(), new String[rows][cols]);
+        assertTrue(impl.createSpreadsheet(sheet, PASSWORD).isOK());
+        return sheetId;
+    }
+
+    String[][] values(String sheetId) {
+        Result<String[][]> values = impl.getSpreadsheetValues(new LinkedHashMap<>(), sheetId, OWNER, PASSWORD);
+        assertTrue(values.isOK());
+        return values.value();
+    }
+
+    /**
+     * The users service, knowing only the owner of the sheets.
+     */
+    static UsersClient users() {
+        return (userId, password) -> {
+            if (!OWNER.equals(userId))
+                return Result.error(Result.ErrorCode.NOT_FOUND);
+            if (!PASSWORD.equals(password))
+                return Result.error(Result.ErrorCode.FORBIDDEN);
+            return Result.ok(new User(userId, "Owner", userId, password));
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package tp1.impl;
+
+import org.junit.jupiter.api.Test;
+import tp1.api.Spreadsheet;
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.service.util.Result;
+import tp1.util.CellValues;
+import tp1.util.ImportPath;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValuesCacheTest {
+
+    private static final String URL = "https://host:8080/rest/spreadsheets/";
+
+    private final ValuesCache cache = new ValuesCache("domain");
+    private final CountingEngine engine = new CountingEngine();
+
+    private final Spreadsheet plain = sheet("plain", "1");
+    private final Spreadsheet other = sheet("other", "2");
+    private final Spreadsheet importer = sheet("importer", "=importrange(\"" + URL + "plain\",\"A1:A1\")");
+
+    @Test
+    void valuesAreComputedOncePerVersion() {
+        Map<String, Long> versions = new HashMap<>();
+        cache.computeValues(versions, plain, 1, engine);
+        cache.computeValues(versions, plain, 1, engine);
+        assertEquals(1, engine.computed);
+        assertNotNull(cache.getIfPresent(versions, plain, 1));
+
+        cache.computeValues(versions, plain, 2, engine);
+        assertEquals(2, engine.computed);
+        assertNull(cache.getIfPresent(versions, plain, 3));
+    }
+
+    @Test
+    void remoteVersionsAreKeptApart() {
+        cache.computeValues(Map.of("Sheetsserverremote", 1L), plain, 1, engine);
+        cache.computeValues(Map.of("Sheetsserverremote", 2L), plain, 1, engine);
+        assertEquals(2, engine.computed);
+
+        // the version of the local domain is already in the version of the sheet
+        cache.computeValues(Map.of("Sheetsserverremote", 2L, "Sheetsserverdomain", 7L), plain, 1, engine);
+        assertEquals(2, engine.computed);
+    }
+
+    @Test
+    void importsAreKeptApartByPath() {
+        var versions = new HashMap<String, Long>();
+        cache.computeValues(versions, importer, 1, engine);
+
+        var path = ImportPath.fromHeaders(null, null).through(URL + "elsewhere");
+        ImportPath.with(path, () -> cache.computeValues(versions, importer, 1, engine));
+        assertEquals(2, engine.computed);
+        assertNotEquals(cache.tag(versions, importer, 1, null), ImportPath.with(path, () -> cache.tag(versions, importer, 1, null)));
+    }
+
+    @Test
+    void writesDropTheSheetAndItsImporters() {
+        var versions = new HashMap<String, Long>();
+        cache.computeValues(versions, plain, 1, engine);
+        cache.computeValues(versions, other, 1, engine);
+        cache.computeValues(versions, importer, 1, engine);
+
+        cache.invalidate(plain.getSheetId(), plain.getSheetURL());
+        assertNull(cache.getIfPresent(versions, plain, 1));
+        assertNull(cache.getIfPresent(versions, importer, 1));
+        assertNotNull(cache.getIfPresent(versions, other, 1));
+
+        // dropped entries are no longer indexed: computing them again caches them again
+        cache.computeValues(versions, importer, 1, engine);
+        cache.invalidate(other.getSheetId(), other.getSheetURL());
+        assertNotNull(cache.getIfPresent(versions, importer, 1));
+        cache.invalidate(plain.getSheetId(), plain.getSheetURL());
+        assertNull(cache.getIfPresent(versions, importer, 1));
+    }
+
+    @Test
+    void tagsFollowTheVersion() {
+        var versions = new HashMap<String, Long>();
+        assertEquals(cache.tag(versions, plain, 1, null), cache.tag(versions, plain, 1, null));
+        assertNotEquals(cache.tag(versions, plain, 1, null), cache.tag(versions, plain, 2, null));
+        assertNotEquals(cache.tag(versions, plain, 1, null), cache.tag(Map.of("Sheetsserverremote", 1L), plain, 1, null));
+    }
+
+    private static Spreadsheet sheet(String sheetId, String value) {
+        return new Spreadsheet(sheetId, "owner@domain", URL + sheetId, 1, 1, new HashSet<>(), new String[][] { { value } });
+    }
+
+    /**
+     * Computes every cell as the number of sheets computed so far.
+     */
+    static class CountingEngine implements SpreadsheetEngine {
+
+        int computed;
+
+        @Override
+        public Result<CellValues> computeValues(Map<String, Long> versions, AbstractSpreadsheet sheet) {
+            var values = new CellValues(sheet.rows(), sheet.columns());
+            values.set(0, 0, (double) ++computed);
+            return Result.ok(values);
+        }
+    }
+}
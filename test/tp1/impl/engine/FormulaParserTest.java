@@ -0,0 +1,133 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class FormulaParserTest {
+
+	@Test
+	void operatorsFollowPrecedence() {
+		assertEquals(7.0, evaluate("=1+2*3"));
+		assertEquals(9.0, evaluate("=(1+2)*3"));
+		assertEquals(4.0, evaluate("=-2^2"));
+		assertEquals(0.1, evaluate("=10%"));
+		assertEquals(2.5, evaluate("=10/2/2"));
+		assertEquals("3x", evaluate("=1+2&\"x\""));
+		assertEquals(true, evaluate("=1+1=2"));
+		assertEquals(true, evaluate("=\"a\"=\"A\""));
+	}
+
+	@Test
+	void functionsAreCaseInsensitive() {
+		assertEquals(3.0, evaluate("=sum(1, 2)"));
+		assertEquals("yes", evaluate("=IF(2>1;\"yes\";\"no\")"));
+		assertEquals(2.35, evaluate("=ROUND(2.345, 2)"));
+	}
+
+	@Test
+	void referencesReadTheContext() {
+		assertEquals(6.0, evaluate("=A1+B1*B2", new Object[][] { { 2.0, 2.0 }, { "", 2.0 } }));
+		assertEquals(6.0, evaluate("=SUM(A1:B2)", new Object[][] { { 2.0, 2.0 }, { "", 2.0 } }));
+		assertEquals(Values.EMPTY, evaluate("=Z99", new Object[][] { { 2.0 } }));
+	}
+
+	@Test
+	void errorsAreThrown() {
+		assertThrows(FormulaException.class, () -> evaluate("=1/0"));
+		assertThrows(FormulaException.class, () -> evaluate("=\"a\"+1"));
+		assertThrows(FormulaException.class, () -> evaluate("=SQRT(-1)"));
+		assertThrows(FormulaException.class, () -> evaluate("=NOSUCHFUNCTION(1)"));
+	}
+
+	@Test
+	void malformedFormulasAreRejected() {
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("1+2"));
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("=1+"));
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("=(1+2"));
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("=1 2"));
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("=A1:"));
+	}
+
+	@Test
+	void oversizedReferencesAreRejected() {
+		var x = assertThrows(FormulaException.class, () -> FormulaParser.parse("=AAAAAAA1"));
+		assertTrue(x.getMessage().startsWith("#REF!"));
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("=A1234567890"));
+		assertThrows(FormulaException.class, () -> FormulaParser.parse("=SUM(A1:A99999999999999999999)"));
+	}
+
+	@Test
+	void referencesAreReported() {
+		List<String> references = new ArrayList<>();
+		FormulaParser.parse("=A1+SUM($B$2:C3)*D4").forEachReference(new Formula.ReferenceVisitor() {
+			@Override
+			public void cell(int row, int col) {
+				references.add(row + "," + col);
+			}
+
+			@Override
+			public void range(int topRow, int topCol, int botRow, int botCol) {
+				references.add(topRow + "," + topCol + ":" + botRow + "," + botCol);
+			}
+		});
+		assertEquals(List.of("0,0", "1,1:2,2", "3,3"), references);
+	}
+
+	@Test
+	void rangesAreRecognized() {
+		assertTrue(FormulaParser.isRange("A1:B2"));
+		assertTrue(FormulaParser.isRange("$A$1:ZZ100"));
+		assertFalse(FormulaParser.isRange("A1"));
+		assertFalse(FormulaParser.isRange("A1:B2:C3"));
+		assertFalse(FormulaParser.isRange("A0:B2"));
+		assertFalse(FormulaParser.isRange("A1:AAAAAAA1"));
+	}
+
+	@Test
+	void compiledFormulasAreShared() {
+		assertSame(FormulaParser.compile("=A1*2+B1"), FormulaParser.compile("=A1*2+B1"));
+	}
+
+	private static Object evaluate(String formula) {
+		return evaluate(formula, new Object[0][0]);
+	}
+
+	private static Object evaluate(String formula, Object[][] cells) {
+		return FormulaParser.parse(formula).evaluate(new GridContext(cells));
+	}
+}
+
+/**
+ * The values of a small grid of cells, given row by row.
+ */
+class GridContext implements Formula.Context {
+
+	private final Object[][] cells;
+
+	GridContext(Object[][] cells) {
+		this.cells = cells;
+	}
+
+	@Override
+	public int rows() {
+		return cells.length;
+	}
+
+	@Override
+	public int cols() {
+		return cells.length == 0 ? 0 : cells[0].length;
+	}
+
+	@Override
+	public Object cellValue(int row, int col) {
+		return row < rows() && col < cols() ? cells[row][col] : Values.EMPTY;
+	}
+}
@@ -0,0 +1,226 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.service.util.Result;
+import tp1.util.CellRange;
+
+class NativeSpreadsheetEngineTest {
+
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	private final SpreadsheetEngine engine = NativeSpreadsheetEngine.getInstance();
+
+	@Test
+	void literalsAndFormulasAreComputed() {
+		var sheet = new TestSheet(new String[][] {
+				{ "1", "2", "=A1+B1", "=SUM(A1:C1)", "hello" },
+				{ "true", "=C1*2", "=IF(A2,\"yes\",\"no\")", "=AVERAGE(A1:B1)", "=E1&\" world\"" },
+		});
+		assertArrayEquals(new String[][] {
+				{ "1.0", "2.0", "3.0", "6.0", "hello" },
+				{ "true", "6.0", "yes", "1.5", "hello world" },
+		}, values(sheet));
+	}
+
+	@Test
+	void errorsPropagateToDependents() {
+		var sheet = new TestSheet(new String[][] {
+				{ "=1/0", "=A1+1", "=B1*2", "3" },
+				{ "=1+", "=AAAAAAA1", "=D1*2", "=IF(TRUE,1,A1)" },
+		});
+		assertArrayEquals(new String[][] {
+				{ "#ERROR?", "#ERROR?", "#ERROR?", "3.0" },
+				{ "#ERROR?", "#ERROR?", "6.0", "1.0" },
+		}, values(sheet));
+	}
+
+	@Test
+	void cyclesFail() {
+		var sheet = new TestSheet(new String[][] {
+				{ "=B1", "=C1", "=A1", "=A1+1" },
+				{ "=A2", "1", "=B2+1", "=SUM(A2:D2)" },
+		});
+		assertArrayEquals(new String[][] {
+				{ "#ERROR?", "#ERROR?", "#ERROR?", "#ERROR?" },
+				{ "#ERROR?", "1.0", "2.0", "#ERROR?" },
+		}, values(sheet));
+	}
+
+	@Test
+	void changedCellsAreRecomputedWithTheirDependents() {
+		var sheet = new TestSheet(new String[][] {
+				{ "1", "2", "=A1+B1", "=SUM(A1:C1)", "=C2" },
+				{ "=A1*10", "=A2+1", "=B2+1", "=D1", "x" },
+		});
+		values(sheet);
+
+		sheet.write(0, 0, "5");
+		assertArrayEquals(new String[][] {
+				{ "5.0", "2.0", "7.0", "14.0", "52.0" },
+				{ "50.0", "51.0", "52.0", "14.0", "x" },
+		}, values(sheet));
+		assertEquals(Set.of("0,0"), sheet.read, "only the written cell is read again");
+
+		// closing a cycle fails the cells along it, and opening it again recovers them
+		sheet.write(0, 0, "=E1");
+		assertArrayEquals(new String[][] {
+				{ "#ERROR?", "2.0", "#ERROR?", "#ERROR?", "#ERROR?" },
+				{ "#ERROR?", "#ERROR?", "#ERROR?", "#ERROR?", "x" },
+		}, values(sheet));
+
+		sheet.write(0, 0, "3");
+		assertArrayEquals(new String[][] {
+				{ "3.0", "2.0", "5.0", "10.0", "32.0" },
+				{ "30.0", "31.0", "32.0", "10.0", "x" },
+		}, values(sheet));
+	}
+
+	@Test
+	void changedCellsAreFoundByVersion() {
+		var raw = new String[][] { { "1", "=A1*2" }, { "=B1+1", null }, { null, "x" } };
+		var sheet = new Spreadsheet("s" + ids.incrementAndGet(), "owner@domain", "url", 3, 2, new HashSet<>(), raw);
+		var first = engine.computeValues(new HashMap<>(), sheet).value();
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "3.0", "" }, { "", "x" } }, first.toStrings());
+
+		var copy = sheet.copy();
+		copy.placeCellRawValue("A1", "4");
+		copy.placeCellRawValue("B3", null);
+		assertArrayEquals(new String[][] { { "4.0", "8.0" }, { "9.0", "" }, { "", "" } }, values(copy));
+
+		// the values handed out before are snapshots, and versions may be computed out of order
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "3.0", "" }, { "", "x" } }, first.toStrings());
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "3.0", "" }, { "", "x" } }, values(sheet));
+
+		// the same contents read again, as new objects
+		var reread = new Spreadsheet(sheet.getSheetId(), "owner@domain", "url", 3, 2, new HashSet<>(), raw);
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "3.0", "" }, { "", "x" } }, values(reread));
+		assertArrayEquals(new String[][] { { "4.0", "8.0" }, { "9.0", "" }, { "", "" } }, values(copy));
+	}
+
+	@Test
+	void rangesAreComputedAlone() {
+		var sheet = new TestSheet(new String[][] {
+				{ "1", "=A1+1", "=1/0" },
+				{ "=B1*2", "=SUM(A1:A2)", "=C1" },
+		});
+		var result = engine.computeSpreadsheetValues(new HashMap<>(), sheet, new CellRange("A1:B2"));
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "4.0", "5.0" } }, result.value());
+	}
+
+	@Test
+	void literalRangesReadOnlyTheirCells() {
+		var sheet = new TestSheet(new String[][] { { "1", "a", "true" }, { "2", "b", "false" }, { "3", "c", null } }) {
+			@Override
+			public boolean hasFormulas() {
+				return false;
+			}
+		};
+		var result = engine.computeSpreadsheetValues(new HashMap<>(), sheet, new CellRange("B2:C3"));
+		assertArrayEquals(new String[][] { { "b", "false" }, { "c", "" } }, result.value());
+		assertEquals(Set.of("1,1", "1,2", "2,1", "2,2"), sheet.read);
+	}
+
+	@Test
+	void rangesAreClampedToTheSheet() {
+		var sheet = new TestSheet(new String[][] { { "=SUM(B1:ZZZZZZ999999999)", "1" }, { "=COUNTA(B1:ZZZZZZ999999999)", "2" } });
+		long start = System.currentTimeMillis();
+		assertArrayEquals(new String[][] { { "3.0", "1.0" }, { "2.0", "2.0" } }, values(sheet));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	void largeSheetsOnlyHoldTheirCells() {
+		// as dense arrays, the state of this sheet would take hundreds of millions of cells
+		var raw = new String[200_000][];
+		raw[0] = new String[] { "1", "=A1+1" };
+		raw[1] = new String[] { "=SUM(B1:B150000)+A1", "=A1*2" };
+		raw[199_999] = new String[2000];
+		raw[199_999][1999] = "=B1*10";
+		var sheet = new Spreadsheet("s" + ids.incrementAndGet(), "owner@domain", "url", raw.length, 2000, new HashSet<>(), raw);
+
+		var result = engine.computeSpreadsheetValues(new HashMap<>(), sheet, new CellRange("A1:B2"));
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "5.0", "2.0" } }, result.value());
+
+		var values = engine.computeValues(new HashMap<>(), sheet);
+		assertEquals(20.0, values.value().get(199_999, 1999));
+		assertEquals(5, values.value().size());
+	}
+
+	@Test
+	void importsAreResolvedBySheet() {
+		var sheet = new TestSheet(new String[][] { { "=importrange(\"domain#other\",\"A1:A1\")", "=A1*2" } });
+		assertArrayEquals(new String[][] { { "42.0", "84.0" } }, values(sheet));
+	}
+
+	private String[][] values(AbstractSpreadsheet sheet) {
+		Result<String[][]> result = engine.computeSpreadsheetValues(new HashMap<>(), sheet);
+		assertTrue(result.isOK());
+		return result.value();
+	}
+
+	/**
+	 * A spreadsheet over an array of raw values, which tells the engine of its writes and records which cells
+	 * the engine read since the last one.
+	 */
+	class TestSheet implements AbstractSpreadsheet {
+
+		final String sheetId = "t" + ids.incrementAndGet();
+		final String[][] raw;
+		final Set<String> read = new HashSet<>();
+
+		TestSheet(String[][] raw) {
+			this.raw = raw;
+		}
+
+		void write(int row, int col, String value) {
+			raw[row][col] = value;
+			read.clear();
+			engine.invalidateCell(sheetId, row, col);
+		}
+
+		@Override
+		public int rows() {
+			return raw.length;
+		}
+
+		@Override
+		public int columns() {
+			return raw[0].length;
+		}
+
+		@Override
+		public String sheetId() {
+			return sheetId;
+		}
+
+		@Override
+		public String cellRawValue(int row, int col) {
+			read.add(row + "," + col);
+			return raw[row][col];
+		}
+
+		@Override
+		public boolean hasFormulas() {
+			return true;
+		}
+
+		@Override
+		public Result<String[][]> rangeValues(Map<String, Long> versions, String sheetURL, String range) {
+			return Result.ok(new String[][] { { "42" } });
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.WebApplicationException;
+import tp1.api.Spreadsheet;
+
+class BinaryGridProviderTest {
+
+	private final BinaryGridProvider provider = new BinaryGridProvider();
+
+	@Test
+	void gridsRoundTrip() throws IOException {
+		String[][] grid = {
+				{ "1.0", "text", null, "-2.5" },
+				{ "2.0", "text", "", "1" },
+				{ "3.0", "ção", "#ERROR?", "true" },
+		};
+		assertArrayEquals(grid, (String[][]) read(write(grid), String[][].class));
+	}
+
+	@Test
+	void emptyGridsRoundTrip() throws IOException {
+		assertArrayEquals(new String[0][], (String[][]) read(write(new String[0][]), String[][].class));
+		assertArrayEquals(new String[2][0], (String[][]) read(write(new String[2][0]), String[][].class));
+	}
+
+	@Test
+	void valuesAreReadAsTheirText() throws IOException {
+		var values = new CellValues(2, 2);
+		values.set(0, 0, 1.0);
+		values.set(0, 1, true);
+		values.set(1, 0, "text");
+		values.set(1, 1, null);
+		assertArrayEquals(values.toStrings(), (String[][]) read(write(values), String[][].class));
+	}
+
+	@Test
+	void spreadsheetsRoundTrip() throws IOException {
+		var sheet = new Spreadsheet("sheet", "owner@domain", "https://host/rest/spreadsheets/sheet", 2, 3,
+				Set.of("user@domain"), new String[][] { { "1", null, "=A1*2" }, { null, null, "text" } });
+
+		var read = (Spreadsheet) read(write(sheet), Spreadsheet.class);
+		assertEquals(sheet.getSheetId(), read.getSheetId());
+		assertEquals(sheet.getOwner(), read.getOwner());
+		assertEquals(sheet.getSheetURL(), read.getSheetURL());
+		assertEquals(2, read.getRows());
+		assertEquals(3, read.getColumns());
+		assertEquals(sheet.getSharedWith(), read.getSharedWith());
+		assertArrayEquals(sheet.getRawValues(), read.getRawValues());
+	}
+
+	@Test
+	void onlyExactNumbersAreWrittenAsNumbers() {
+		assertEquals(1.0, BinaryGridProvider.exactNumber("1.0"));
+		assertEquals(-0.5, BinaryGridProvider.exactNumber("-0.5"));
+		assertNull(BinaryGridProvider.exactNumber("1"));
+		assertNull(BinaryGridProvider.exactNumber("1e3"));
+		assertNull(BinaryGridProvider.exactNumber("NaN"));
+		assertNull(BinaryGridProvider.exactNumber(""));
+	}
+
+	@Test
+	void malformedMessagesAreRejected() throws IOException {
+		byte[] grid = write(new String[][] { { "a", "b" }, { "c", "d" } });
+
+		// wrong magic, wrong kind, truncated
+		assertThrows(WebApplicationException.class, () -> read(new byte[] { 'X', 'G', 1, 0 }, String[][].class));
+		assertThrows(WebApplicationException.class, () -> read(grid, Spreadsheet.class));
+		for (int length = 0; length < grid.length; length++) {
+			byte[] truncated = Arrays.copyOf(grid, length);
+			assertThrows(WebApplicationException.class, () -> read(truncated, String[][].class));
+		}
+	}
+
+	@Test
+	void oversizedMessagesAreRejected() {
+		// negative and huge counts, and a string longer than the message
+		assertThrows(WebApplicationException.class, () -> read(new byte[] { 'S', 'G', 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 1 }, String[][].class));
+		assertThrows(WebApplicationException.class, () -> read(new byte[] { 'S', 'G', 1, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x40, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x40 }, String[][].class));
+		assertThrows(WebApplicationException.class, () -> read(new byte[] { 'S', 'G', 1, 1, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a' }, Spreadsheet.class));
+	}
+
+	@Test
+	void stringsAreLimitedInAll() throws IOException {
+		byte[] one = write(new String[][] { { "x".repeat(600) } });
+		byte[] many = write(new String[][] { { "a".repeat(300), "b".repeat(300) }, { "a".repeat(300), "c" } });
+		byte[] repeated = write(new String[][] { { "a".repeat(300), "a".repeat(300) }, { "a".repeat(300), "b" } });
+
+		System.setProperty(BinaryGridProvider.MAX_BYTES_PROPERTY, "500");
+		try {
+			// a single string over the budget, and strings over it only together; repeated ones are counted once
+			assertThrows(WebApplicationException.class, () -> read(one, String[][].class));
+			assertThrows(WebApplicationException.class, () -> read(many, String[][].class));
+			assertEquals("b", ((String[][]) read(repeated, String[][].class))[1][1]);
+		} finally {
+			System.clearProperty(BinaryGridProvider.MAX_BYTES_PROPERTY);
+		}
+	}
+
+	private byte[] write(Object entity) throws IOException {
+		var out = new ByteArrayOutputStream();
+		provider.writeTo(entity, entity.getClass(), entity.getClass(), null, null, null, out);
+		return out.toByteArray();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object read(byte[] message, Class<?> type) throws IOException {
+		return provider.readFrom((Class) type, type, null, null, null, new ByteArrayInputStream(message));
+	}
+}
@@ -0,0 +1,100 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class CellValuesTest {
+
+	@Test
+	void valuesKeepTheirType() {
+		var values = new CellValues(2, 2);
+		values.set(0, 0, 1.5);
+		values.set(0, 1, true);
+		values.set(1, 0, "text");
+		values.set(1, 1, null);
+
+		assertEquals(1.5, values.get(0, 0));
+		assertEquals(true, values.get(0, 1));
+		assertEquals("text", values.get(1, 0));
+		assertNull(values.get(1, 1));
+		assertArrayEquals(new String[][] { { "1.5", "true" }, { "text", CellValues.ERROR } }, values.toStrings());
+	}
+
+	@Test
+	void emptyCellsAreEmptyStrings() {
+		var values = new CellValues(1, 2);
+		values.set(0, 1, "");
+		assertEquals("", values.get(0, 0));
+		assertEquals("", values.get(0, 1));
+		assertEquals("", values.text(0, 1));
+	}
+
+	@Test
+	void parsedValuesRecoverTheirType() {
+		var values = CellValues.of(new String[][] { { "1.0", "false", "x" }, { "", "#ERROR?", null } });
+		assertEquals(1.0, values.get(0, 0));
+		assertEquals(false, values.get(0, 1));
+		assertEquals("x", values.get(0, 2));
+		assertEquals("", values.get(1, 0));
+		assertEquals("#ERROR?", values.get(1, 1));
+		assertNull(values.get(1, 2));
+	}
+
+	@Test
+	void slicesCopyTheRange() {
+		var values = CellValues.of(new String[][] { { "1.0", "2.0", "3.0" }, { "a", "b", "c" } });
+		var slice = values.slice(new CellRange("B1:C2"));
+		assertArrayEquals(new String[][] { { "2.0", "3.0" }, { "b", "c" } }, slice.toStrings());
+
+		var copy = values.copy();
+		values.set(0, 0, "changed");
+		assertEquals(1.0, copy.get(0, 0));
+	}
+
+	@Test
+	void copiesDoNotSeeEachOthersWrites() {
+		var values = CellValues.of(new String[][] { { "1.0", "2.0" }, { "a", "b" } });
+		var copy = values.copy();
+		copy.set(0, 0, "changed");
+		values.set(1, 1, 3.0);
+		var second = copy.copy();
+		copy.set(0, 1, true);
+
+		assertArrayEquals(new String[][] { { "1.0", "2.0" }, { "a", "3.0" } }, values.toStrings());
+		assertArrayEquals(new String[][] { { "changed", "true" }, { "a", "b" } }, copy.toStrings());
+		assertArrayEquals(new String[][] { { "changed", "2.0" }, { "a", "b" } }, second.toStrings());
+	}
+
+	@Test
+	void onlyNonEmptyCellsTakeUpSpace() {
+		var values = new CellValues(1000, 1000);
+		values.set(999, 999, 1.0);
+		values.set(0, 5, "text");
+		values.set(0, 2, null);
+		assertEquals(3, values.size());
+
+		values.set(0, 5, "");
+		assertEquals(2, values.size());
+		assertEquals("", values.get(0, 5));
+		assertEquals(1, values.slice(new CellRange(998, 998, 999, 999)).size());
+	}
+
+	@Test
+	void overwrittenTextsAreDropped() {
+		var values = new CellValues(1, 1);
+		for (int i = 0; i < 100; i++)
+			values.set(0, 0, "text " + i);
+		assertEquals("text 99", values.get(0, 0));
+	}
+
+	@Test
+	void cellsOutsideTheGridAreRejected() {
+		var values = new CellValues(1, 1);
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> values.get(1, 0));
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> values.set(0, -1, 1.0));
+	}
+}
@@ -0,0 +1,101 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.MultivaluedMap;
+
+class CompressionTest {
+
+	@Test
+	void encodingFollowsTheAcceptedQualities() {
+		assertNull(Compression.choose(null));
+		assertNull(Compression.choose("identity"));
+		assertEquals(Compression.GZIP, Compression.choose("gzip, deflate"));
+		assertEquals(Compression.GZIP, Compression.choose("x-gzip"));
+		assertEquals(Compression.DEFLATE, Compression.choose("deflate"));
+		assertEquals(Compression.DEFLATE, Compression.choose("gzip;q=0.5, deflate;q=0.8"));
+		assertEquals(Compression.GZIP, Compression.choose("*"));
+		assertEquals(Compression.DEFLATE, Compression.choose("*, gzip;q=0"));
+		assertNull(Compression.choose("gzip;q=0, deflate;q=0"));
+		assertNull(Compression.choose("gzip;q=oops"));
+	}
+
+	@Test
+	void smallBodiesAreNotCompressed() throws IOException {
+		byte[] body = body(Compression.threshold());
+		var headers = new MultivaluedHashMap<String, Object>();
+
+		assertArrayEquals(body, write(body, headers, Compression.GZIP));
+		assertFalse(headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+	}
+
+	@Test
+	void largeBodiesAreCompressed() throws IOException {
+		byte[] body = body(Compression.threshold() * 4);
+
+		for (String encoding : new String[] { Compression.GZIP, Compression.DEFLATE }) {
+			var headers = new MultivaluedHashMap<String, Object>();
+			headers.putSingle(HttpHeaders.CONTENT_LENGTH, body.length);
+
+			byte[] written = write(body, headers, encoding);
+			assertTrue(written.length < body.length);
+			assertEquals(encoding, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+			assertFalse(headers.containsKey(HttpHeaders.CONTENT_LENGTH));
+
+			InputStream in = encoding.equals(Compression.GZIP) ? new GZIPInputStream(new ByteArrayInputStream(written))
+					: new InflaterInputStream(new ByteArrayInputStream(written));
+			assertArrayEquals(body, in.readAllBytes());
+		}
+	}
+
+	@Test
+	void inflatedBodiesAreLimited() throws IOException {
+		byte[] body = new byte[1 << 20];
+		var compressed = new ByteArrayOutputStream();
+		try (var out = new GZIPOutputStream(compressed)) {
+			out.write(body);
+		}
+		assertTrue(compressed.size() < 2048);
+
+		var limited = new LimitedInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())), body.length - 1);
+		assertThrows(WebApplicationException.class, limited::readAllBytes);
+
+		var exact = new LimitedInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray())), body.length);
+		assertArrayEquals(body, exact.readAllBytes());
+	}
+
+	private static byte[] write(byte[] body, MultivaluedMap<String, Object> headers, String encoding) throws IOException {
+		var target = new ByteArrayOutputStream();
+		var out = new ThresholdOutputStream(target, headers, encoding);
+		// written in pieces, as bodies are
+		for (int off = 0; off < body.length; off += 100)
+			out.write(body, off, Math.min(100, body.length - off));
+		out.finish();
+		return target.toByteArray();
+	}
+
+	private static byte[] body(int length) {
+		byte[] body = new byte[length];
+		Arrays.fill(body, (byte) 'x');
+		return body;
+	}
+}
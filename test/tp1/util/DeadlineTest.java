@@ -0,0 +1,47 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DeadlineTest {
+
+	@Test
+	void noDeadlineNeverExpires() {
+		var none = Deadline.current();
+		assertFalse(none.isSet());
+		assertFalse(none.expired());
+		assertEquals(Long.MAX_VALUE, none.remaining());
+		assertEquals(100, none.cap(100));
+	}
+
+	@Test
+	void headersShortenTheBudget() {
+		long budget = Deadline.fromHeader(null).remaining();
+		assertTrue(budget > 1000);
+
+		long remaining = Deadline.fromHeader(" 500 ").remaining();
+		assertTrue(remaining <= 500 && remaining > 0);
+
+		assertTrue(Deadline.fromHeader(Long.toString(Long.MAX_VALUE)).remaining() <= budget);
+		assertTrue(Deadline.fromHeader("oops").remaining() <= budget);
+	}
+
+	@Test
+	void spentDeadlinesExpire() {
+		var spent = Deadline.fromHeader("-10");
+		assertTrue(spent.expired());
+		assertEquals(0, spent.remaining());
+		assertEquals(0, spent.cap(100));
+		assertEquals("0", spent.header());
+	}
+
+	@Test
+	void deadlinesAreKeptPerCall() {
+		var deadline = Deadline.in(1000);
+		assertTrue(Deadline.with(deadline, () -> Deadline.current().isSet()));
+		assertFalse(Deadline.current().isSet());
+	}
+}
@@ -0,0 +1,35 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ETagsTest {
+
+	@Test
+	void tagsAreWeak() {
+		assertEquals("W/\"7\"", ETags.of(7));
+		assertTrue(ETags.of(new String[][] { { "a" } }).startsWith("W/\""));
+	}
+
+	@Test
+	void tagsFollowTheContents() {
+		assertEquals(ETags.of(new String[][] { { "a", null } }), ETags.of(new String[][] { { "a", null } }));
+		assertNotEquals(ETags.of(new String[][] { { "a", null } }), ETags.of(new String[][] { { "a", "" } }));
+		assertNotEquals(ETags.of(new String[][] { { "ab" }, {} }), ETags.of(new String[][] { { "a" }, { "b" } }));
+	}
+
+	@Test
+	void matchingIsWeak() {
+		String tag = ETags.of(3);
+		assertTrue(ETags.matches(tag, tag));
+		assertTrue(ETags.matches("\"3\"", tag));
+		assertTrue(ETags.matches("W/\"1\", W/\"3\"", tag));
+		assertTrue(ETags.matches("*", tag));
+		assertFalse(ETags.matches("W/\"4\"", tag));
+		assertFalse(ETags.matches(null, tag));
+	}
+}
@@ -0,0 +1,59 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ImportPathTest {
+
+	private static final String A = "https://a:8080/rest/spreadsheets/x?y=1,2", B = "https://b:8080/soap#sheet";
+
+	@Test
+	void missingHeadersGiveTheEmptyPath() {
+		assertTrue(ImportPath.fromHeaders(null, null).isEmpty());
+		assertTrue(ImportPath.fromHeaders("", "3").isEmpty());
+		assertEquals("", ImportPath.fromHeaders(null, null).key());
+	}
+
+	@Test
+	void pathsRoundTripThroughTheHeaders() {
+		var path = ImportPath.fromHeaders(null, null).through(A).through(B);
+		var received = ImportPath.fromHeaders(path.pathHeader(), Integer.toString(path.hops()));
+
+		assertTrue(received.visits(A));
+		assertTrue(received.visits(B));
+		assertFalse(received.visits("https://c:8080/rest/spreadsheets/x"));
+		assertEquals(2, received.hops());
+		assertEquals(path.key(), received.key());
+	}
+
+	@Test
+	void hopsAreAtLeastTheSheetsVisited() {
+		var path = ImportPath.fromHeaders(null, null).through(A).through(B);
+		assertEquals(2, ImportPath.fromHeaders(path.pathHeader(), "1").hops());
+		assertEquals(2, ImportPath.fromHeaders(path.pathHeader(), "oops").hops());
+		assertEquals(5, ImportPath.fromHeaders(path.pathHeader(), " 5 ").hops());
+		assertNotEquals(path.key(), ImportPath.fromHeaders(path.pathHeader(), "5").key());
+	}
+
+	@Test
+	void longPathsAreTooDeep() {
+		var path = ImportPath.fromHeaders(null, null);
+		for (int hop = 0; hop < 8; hop++)
+			path = path.through("https://h/rest/spreadsheets/" + hop);
+		assertFalse(path.tooDeep());
+		assertTrue(path.through(A).tooDeep());
+	}
+
+	@Test
+	void pathsAreKeptPerCall() {
+		var path = ImportPath.fromHeaders(null, null).through(A);
+		var empty = ImportPath.current();
+		assertSame(path, ImportPath.with(path, ImportPath::current));
+		assertSame(empty, ImportPath.current());
+	}
+}
@@ -0,0 +1,126 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.engine.CellType;
+
+class SparseCellsTest {
+
+	@Test
+	void cellsKeepTheirTypeAndLiteral() {
+		var cells = SparseCells.of(new String[][] { { "1", "true", "text" }, { null, "=A1+1", "=importrange(\"d#s\",\"A1:B2\")" } });
+
+		assertEquals(2, cells.rows());
+		assertEquals(3, cells.cols());
+		assertEquals("1", cells.get(0, 0));
+		assertNull(cells.get(1, 0));
+
+		assertEquals(CellType.NUMBER, cells.type(0, 0));
+		assertEquals(CellType.BOOLEAN, cells.type(0, 1));
+		assertEquals(CellType.TEXT, cells.type(0, 2));
+		assertEquals(CellType.EMPTY, cells.type(1, 0));
+		assertEquals(CellType.FORMULA, cells.type(1, 1));
+		assertEquals(CellType.IMPORTRANGE, cells.type(1, 2));
+
+		assertEquals(1.0, cells.literal(0, 0));
+		assertEquals(true, cells.literal(0, 1));
+		assertEquals("", cells.literal(1, 0));
+
+		assertEquals(2, cells.formulas());
+		assertEquals(1, cells.imports());
+	}
+
+	@Test
+	void writesKeepTheCountsUpToDate() {
+		var cells = new SparseCells(2, 2);
+		cells.set(0, 1, "=1+1");
+		cells.set(0, 0, "=importrange(\"d#s\",\"A1:A1\")");
+		assertEquals(2, cells.formulas());
+		assertEquals(1, cells.imports());
+
+		cells.set(0, 0, "2");
+		assertEquals(1, cells.formulas());
+		assertEquals(0, cells.imports());
+
+		cells.set(0, 1, null);
+		assertEquals(0, cells.formulas());
+		assertArrayEquals(new String[][] { { "2", null }, { null, null } }, cells.toArray());
+	}
+
+	@Test
+	void copiesDoNotSeeEachOthersWrites() {
+		var cells = SparseCells.of(new String[][] { { "1", "2" }, { "3", "4" } });
+		var copy = cells.copy();
+
+		copy.set(0, 0, "10");
+		copy.set(0, 1, null);
+		cells.set(1, 1, "=A1");
+
+		assertArrayEquals(new String[][] { { "1", "2" }, { "3", "=A1" } }, cells.toArray());
+		assertArrayEquals(new String[][] { { "10", null }, { "3", "4" } }, copy.toArray());
+		assertEquals(1, cells.formulas());
+		assertEquals(0, copy.formulas());
+	}
+
+	@Test
+	void changesAreFoundBetweenVersions() {
+		var cells = SparseCells.of(new String[][] { { "1", "2" }, { "3", "4" } });
+		var copy = cells.copy();
+		assertSame(cells.version(), copy.version());
+
+		copy.set(0, 0, "5");
+		copy.set(1, 1, null);
+		var other = cells.copy();
+		other.set(1, 0, "6");
+		assertEquals(Set.of("0,0", "1,1"), changes(copy, cells.version()));
+		assertEquals(Set.of("0,0", "1,1"), changes(cells, copy.version()));
+		assertEquals(Set.of("0,0", "1,1", "1,0"), changes(other, copy.version()));
+		assertEquals(Set.of(), changes(copy, copy.version()));
+
+		// stores read again, or too many writes apart, are not compared
+		assertNull(changes(cells, SparseCells.of(new String[][] { { "1", "2" }, { "3", "4" } }).version()));
+		var written = cells.copy();
+		for (int i = 0; i <= SparseCells.MAX_CHANGES; i++)
+			written.set(0, 1, Integer.toString(i));
+		assertNull(changes(written, cells.version()));
+	}
+
+	private static Set<String> changes(SparseCells cells, Object since) {
+		Set<String> changes = new HashSet<>();
+		return cells.forEachChange(since, (row, col) -> changes.add(row + "," + col)) ? changes : null;
+	}
+
+	@Test
+	void cellsAreVisitedInOrder() {
+		var cells = SparseCells.of(new String[][] { { null, "b", null, "d" }, { "e", null, "g", null }, { null, null, null, null } });
+
+		List<String> visited = new ArrayList<>();
+		cells.forEachCell((row, col) -> visited.add(cells.get(row, col)));
+		assertEquals(List.of("b", "d", "e", "g"), visited);
+
+		visited.clear();
+		cells.forEachCell(new CellRange(0, 1, 5, 2), (row, col) -> visited.add(cells.get(row, col)));
+		assertEquals(List.of("b", "g"), visited);
+
+		assertArrayEquals(new String[] { "e", null, "g", null }, cells.row(1));
+	}
+
+	@Test
+	void cellsOutsideTheStoreAreRejected() {
+		var cells = new SparseCells(2, 2);
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> cells.get(2, 0));
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> cells.set(0, 2, "x"));
+		assertThrows(ArrayIndexOutOfBoundsException.class, () -> cells.row(-1));
+	}
+}